@@ -10,6 +10,7 @@ import os, time
 test_cases_dir = '../data/codegen/'
 # test_cases_dir = '../data/optim-new/'
 # test_cases_dir = '../data/need/'
+# test_cases_dir = './regression/'
 # compile_cmd = "bash ./build.bash"
 execute_cmd = "bash ./codegen.bash"
 excluded_test_cases = ["foo.mx"]
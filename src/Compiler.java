@@ -18,6 +18,17 @@ import backend.*;
 
 public class Compiler {
   public static void main(String[] args) throws Exception {
+    // -budget=<ms> : wall-clock budget, cheaper strategies are used when it is running out
+    // -regalloc=prem : color with the original PremAllocator, to compare the allocations against it
+    // -linear-scan=<n> : functions with more than n instructions use linear scan allocation
+    CompileBudget budget = new CompileBudget();
+    for (String arg : args)
+      if (arg.startsWith("-budget="))
+        budget = new CompileBudget(Long.parseLong(arg.substring("-budget=".length())));
+      else if (arg.equals("-regalloc=prem"))
+        RegAllocDispatcher.usePremAllocator = true;
+      else if (arg.startsWith("-linear-scan="))
+        RegAllocDispatcher.linearScanThreshold = Integer.parseInt(arg.substring("-linear-scan=".length()));
     // CharStream input = CharStreams.fromStream(new FileInputStream("input.mx"));
     CharStream input = CharStreams.fromStream(System.in);
     MxLexer lexer = new MxLexer(input);
@@ -36,15 +47,17 @@ public class Compiler {
     // AST -> LLVM IR
     IRProgram irProgram = new IRProgram();
     new IRBuilder(irProgram, globalScope).visit(ast);
-    new IROptimizer(irProgram);
-    FileOutputStream irOut = new FileOutputStream("output.ll");
-    irOut.write(irProgram.toString().getBytes());
-    irOut.close();
+    new IROptimizer(irProgram, budget);
+    if (budget.allowOptionalPass("IR dump")) {
+      FileOutputStream irOut = new FileOutputStream("output.ll");
+      irOut.write(irProgram.toString().getBytes());
+      irOut.close();
+    }
     // LLVM IR -> ASM
     ASMModule asmModule = new ASMModule();
     new InstSelector(asmModule).visit(irProgram);
     // new RegAllocator(asmModule).work();
-    new PremAllocator(asmModule).work();
+    new RegAllocDispatcher(asmModule, budget).work();
     new StackManager(asmModule).work();
     new MergeBlock(asmModule).work();
 
@@ -56,5 +69,6 @@ public class Compiler {
     FileOutputStream out = new FileOutputStream("output.s");
     out.write(asmModule.toString().getBytes());
     out.close();
+    budget.report(System.err);
   }
 }
\ No newline at end of file
@@ -15,6 +15,11 @@ public class IRBasicBlock {
   public IRBasicBlock idom = null;
   public LinkedList<IRBasicBlock> domChildren = new LinkedList<>();
   public LinkedList<IRBasicBlock> domFrontier = new LinkedList<>();
+  // null if the block is post dominated only by the virtual exit
+  public IRBasicBlock postIdom = null;
+  // the blocks whose branch decides whether this block is executed
+  public LinkedList<IRBasicBlock> postDomFrontier = new LinkedList<>();
+  public IRLoop loop = null; // the innermost loop
 
   public LinkedList<IRPhiInst> phiInsts = new LinkedList<>();
 
@@ -0,0 +1,26 @@
+package IR;
+
+// what a call may do besides computing its value, the summaries of user functions come from ModRefAnalyzer
+public class IREffect {
+  public static final int READ_GLOBAL = 1, WRITE_GLOBAL = 2, READ_MEMORY = 4, WRITE_MEMORY = 8, ALLOCATE = 16,
+      IO = 32, MAY_NOT_TERMINATE = 64, ALL = 127;
+
+  // an unused call can be removed
+  public static boolean removable(int effects) {
+    return (effects & (WRITE_GLOBAL | WRITE_MEMORY | IO | MAY_NOT_TERMINATE)) == 0;
+  }
+
+  // two equal calls give the same value if the memory they read is not written in between
+  public static boolean readOnly(int effects) {
+    return removable(effects) && (effects & ALLOCATE) == 0;
+  }
+
+  // the value only depends on the arguments
+  public static boolean readNone(int effects) {
+    return readOnly(effects) && (effects & (READ_GLOBAL | READ_MEMORY)) == 0;
+  }
+
+  public static boolean writesMemory(int effects) {
+    return (effects & (WRITE_GLOBAL | WRITE_MEMORY)) != 0;
+  }
+}
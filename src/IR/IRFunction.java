@@ -20,6 +20,8 @@ public class IRFunction {
   public IRRegister retAddr;
 
   public HashMap<IRRegister, HashSet<IRInst>> useList = new HashMap<>();
+  // inner loops come before outer ones
+  public ArrayList<IRLoop> loops = new ArrayList<>();
 
   public IRFunction(String name, IRType returnType) {
     this.name = name;
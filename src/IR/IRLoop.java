@@ -0,0 +1,24 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+// a natural loop, computed by middleend.LoopAnalyzer
+public class IRLoop {
+  public IRBasicBlock header, preheader;
+  public LinkedHashSet<IRBasicBlock> blocks = new LinkedHashSet<>();
+  public ArrayList<IRBasicBlock> latches = new ArrayList<>();
+  // blocks outside the loop with a predecessor inside it
+  public ArrayList<IRBasicBlock> exits = new ArrayList<>();
+  public IRLoop parent = null;
+  public ArrayList<IRLoop> children = new ArrayList<>();
+  public int depth = 1;
+
+  public IRLoop(IRBasicBlock header) {
+    this.header = header;
+  }
+
+  public boolean contains(IRBasicBlock block) {
+    return blocks.contains(block);
+  }
+}
@@ -0,0 +1,40 @@
+package IR;
+
+import IR.inst.*;
+
+import java.util.ArrayList;
+
+// a node of the memory SSA form, computed by middleend.MemorySSABuilder
+public class IRMemoryAccess {
+  public enum Kind {
+    LIVE_ON_ENTRY, DEF, USE, PHI
+  }
+
+  public Kind kind;
+  public IRBasicBlock block;
+  // the load, store or call of a DEF or USE
+  public IRInst inst = null;
+  // the memory state a DEF or USE reads
+  public IRMemoryAccess defining = null;
+  // the incoming states of a PHI
+  public ArrayList<IRMemoryAccess> incoming = new ArrayList<>();
+  public ArrayList<IRBasicBlock> from = new ArrayList<>();
+  public ArrayList<IRMemoryAccess> users = new ArrayList<>();
+
+  public IRMemoryAccess(Kind kind, IRBasicBlock block, IRInst inst) {
+    this.kind = kind;
+    this.block = block;
+    this.inst = inst;
+  }
+
+  public void setDefining(IRMemoryAccess access) {
+    defining = access;
+    access.users.add(this);
+  }
+
+  public void addIncoming(IRMemoryAccess access, IRBasicBlock block) {
+    incoming.add(access);
+    from.add(block);
+    access.users.add(this);
+  }
+}
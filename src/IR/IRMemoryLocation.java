@@ -0,0 +1,24 @@
+package IR;
+
+import IR.entity.*;
+
+import java.util.ArrayList;
+
+// the bytes an address refers to: root + offset + sum of index * scale, computed by middleend.AliasAnalyzer
+public class IRMemoryLocation {
+  public IREntity root;
+  public int offset = 0, size;
+  public ArrayList<IREntity> indices = new ArrayList<>();
+  public ArrayList<Integer> scales = new ArrayList<>();
+  // the type tag of the access, null if unknown
+  public String typeTag = null;
+
+  public IRMemoryLocation(IREntity root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  public boolean sameIndices(IRMemoryLocation other) {
+    return indices.equals(other.indices) && scales.equals(other.scales);
+  }
+}
@@ -8,6 +8,7 @@ import utils.BuiltinElements;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 public class IRProgram implements BuiltinElements {
   public LinkedList<IRFunction> funcList = new LinkedList<IRFunction>();
@@ -15,6 +16,12 @@ public class IRProgram implements BuiltinElements {
   public ArrayList<IRStructType> structTypeList = new ArrayList<IRStructType>();
 
   public HashMap<String, IRStringConst> stringConst = new HashMap<>();
+  // IREffect flags of the user functions, filled by ModRefAnalyzer
+  public HashMap<String, Integer> funcEffects = new HashMap<>();
+  // the 2-d arrays created by IRBuilder with all their sizes, {the header of the first row, the bytes of a
+  // row}, and the tags of the row slots that are never assigned outside newArray, see middleend.ArrayFlattening
+  public HashMap<IRRegister, IREntity[]> flatArrays = new HashMap<>();
+  public HashSet<String> flatRowTags = new HashSet<>();
 
   public IRFunction initFunc = new IRFunction("__mx_global_var_init", irVoidType), mainFunc;
   public IRBasicBlock initBlock = new IRBasicBlock(initFunc, "entry_", 0);
@@ -26,8 +33,24 @@ public class IRProgram implements BuiltinElements {
     initFunc.exitBlock.terminalInst = new IRRetInst(initFunc.exitBlock, irVoidConst);
   }
 
+  public int effectsOf(String funcName) {
+    if (funcEffects.containsKey(funcName))
+      return funcEffects.get(funcName);
+    return builtinEffects.getOrDefault(funcName, IREffect.ALL);
+  }
+
   public IRStringConst addStringConst(String str) {
-    // transfer escape characters
+    return stringConstOf(unescape(str));
+  }
+
+  public IRStringConst stringConstOf(String val) {
+    if (!stringConst.containsKey(val))
+      stringConst.put(val, new IRStringConst(val));
+    return stringConst.get(val);
+  }
+
+  // transfer escape characters
+  public static String unescape(String str) {
     String val = "";
     for (int i = 0; i < str.length(); ++i) {
       char c = str.charAt(i);
@@ -40,9 +63,7 @@ public class IRProgram implements BuiltinElements {
         }
       } else val += c;
     }
-    if (!stringConst.containsKey(val))
-      stringConst.put(val, new IRStringConst(val));
-    return stringConst.get(val);
+    return val;
   }
 
   @Override
@@ -63,7 +84,11 @@ public class IRProgram implements BuiltinElements {
       ret += "@str." + String.valueOf(str.id) + " = private unnamed_addr constant ["
           + String.valueOf(str.val.length() + 1) + " x i8] c\"" + str.printStr() + "\"\n";
     for (IRGlobalVar globalVar : globalVarList)
-      ret += globalVar + " = dso_local global " + ((IRPtrType) globalVar.type).pointToType() + " " + globalVar.initVal + "\n";
+      if (globalVar.initVal instanceof IRStringConst str)
+        ret += globalVar + " = dso_local global i8* getelementptr inbounds ([" + (str.val.length() + 1) + " x i8], "
+            + str.toStringWithType() + ", i32 0, i32 0)\n";
+      else
+        ret += globalVar + " = dso_local global " + ((IRPtrType) globalVar.type).pointToType() + " " + globalVar.initVal + "\n";
     
     ret += "\ndeclare dso_local i8* @malloc(i32)\n";
     ret += "declare dso_local i32 @strlen(i8*)\n";
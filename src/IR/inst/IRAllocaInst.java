@@ -10,6 +10,8 @@ public class IRAllocaInst extends IRInst {
   public IRRegister allocaReg;
   public int param_idx = -1;
   // if param_idx != -1, then this is allocated for a parameter
+  public int count = 1;
+  // if count != 1, then this is a stack array of count elements, see middleend.HeapToStack
   public IRAllocaInst(IRBasicBlock block, IRType type, IRRegister allocaReg) {
     super(block);
     this.type = type;
@@ -24,7 +26,7 @@ public class IRAllocaInst extends IRInst {
 
   @Override
   public String toString() {
-    return allocaReg + " = alloca " + type;
+    return allocaReg + " = alloca " + type + (count != 1 ? ", i32 " + count : "");
   }
 
   @Override
@@ -41,4 +41,10 @@ public class IRBranchInst extends IRTerminalInst {
   public void replaceUse(IREntity old, IREntity newOne) {
     cond = cond == old ? newOne : cond;
   }
+
+  @Override
+  public void replaceBlock(IRBasicBlock old, IRBasicBlock newOne) {
+    thenBlock = thenBlock == old ? newOne : thenBlock;
+    elseBlock = elseBlock == old ? newOne : elseBlock;
+  }
 }
\ No newline at end of file
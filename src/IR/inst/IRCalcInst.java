@@ -53,43 +53,37 @@ public class IRCalcInst extends IRInst {
 
   public IRIntConst calcConst() {
     if (lhs instanceof IRIntConst && rhs instanceof IRIntConst) {
-      int lhsVal = ((IRIntConst) lhs).val;
-      int rhsVal = ((IRIntConst) rhs).val;
-      int resVal = 0;
-      switch (op) {
-        case "add":
-          resVal = lhsVal + rhsVal;
-          break;
-        case "sub":
-          resVal = lhsVal - rhsVal;
-          break;
-        case "mul":
-          resVal = lhsVal * rhsVal;
-          break;
-        case "sdiv":
-          if (rhsVal == 0) return null;
-          resVal = lhsVal / rhsVal;
-          break;
-        case "srem":
-          resVal = lhsVal % rhsVal;
-          break;
-        case "shl":
-          resVal = lhsVal << rhsVal;
-          break;
-        case "ashr":
-          resVal = lhsVal >> rhsVal;
-          break;
-        case "and":
-          resVal = lhsVal & rhsVal;
-          break;
-        case "or":
-          resVal = lhsVal | rhsVal;
-          break;
-        case "xor":
-          resVal = lhsVal ^ rhsVal;
-          break;
-      }
-      return new IRIntConst(resVal);
+      Integer resVal = calc(op, ((IRIntConst) lhs).val, ((IRIntConst) rhs).val);
+      return resVal == null ? null : new IRIntConst(resVal);
+    }
+    return null;
+  }
+
+  // null if the result is undefined (division by zero)
+  public static Integer calc(String op, int lhsVal, int rhsVal) {
+    switch (op) {
+      case "add":
+        return lhsVal + rhsVal;
+      case "sub":
+        return lhsVal - rhsVal;
+      case "mul":
+        return lhsVal * rhsVal;
+      case "sdiv":
+        if (rhsVal == 0) return null;
+        return lhsVal / rhsVal;
+      case "srem":
+        if (rhsVal == 0) return null;
+        return lhsVal % rhsVal;
+      case "shl":
+        return lhsVal << rhsVal;
+      case "ashr":
+        return lhsVal >> rhsVal;
+      case "and":
+        return lhsVal & rhsVal;
+      case "or":
+        return lhsVal | rhsVal;
+      case "xor":
+        return lhsVal ^ rhsVal;
     }
     return null;
   }
@@ -43,6 +43,36 @@ public class IRCallInst extends IRInst {
     visitor.visit(this);
   }
 
+  // the value of the call is returned right away: the call ends its block, which returns or jumps to
+  // a block that only passes the value to its ret (a bool is widened to i8 and truncated back)
+  public boolean isTail() {
+    var insts = parentBlock.insts;
+    IREntity val = callReg;
+    boolean widened = false;
+    if (insts.getLast() instanceof IRZextInst zext && callReg != null && zext.val == callReg
+        && insts.size() > 1 && insts.get(insts.size() - 2) == this) {
+      val = zext.dest;
+      widened = true;
+    } else if (insts.getLast() != this)
+      return false;
+    IRBasicBlock exit = parentBlock;
+    if (parentBlock.terminalInst instanceof IRJumpInst jump) {
+      exit = jump.toBlock;
+      for (var inst : exit.insts)
+        if (inst instanceof IRPhiInst phi && phi.blocks.contains(parentBlock)
+            && phi.values.get(phi.blocks.indexOf(parentBlock)) == val)
+          val = phi.dest;
+        else if (inst instanceof IRTruncInst trunc && widened && trunc.val == val) {
+          val = trunc.dest;
+          widened = false;
+        } else
+          return false;
+    }
+    if (!(exit.terminalInst instanceof IRRetInst ret) || widened)
+      return false;
+    return callReg == null ? ret.val instanceof IRVoidConst : ret.val == val;
+  }
+
   @Override
   public LinkedHashSet<IREntity> getUse() {
     LinkedHashSet<IREntity> ret = new LinkedHashSet<>();
@@ -12,6 +12,8 @@ public class IRGetElementPtrInst extends IRInst {
   public IREntity ptr;
   public IRType pToType;
   public ArrayList<IREntity> indexList = new ArrayList<IREntity>();
+  // the source-level kind of the element, see middleend.AliasAnalyzer
+  public String typeTag = null;
 
   public IRGetElementPtrInst(IRBasicBlock block, IREntity ptr, IRRegister res, IREntity... indexList) {
     super(block);
@@ -52,32 +52,26 @@ public class IRIcmpInst extends IRInst {
   }
 
   public IRCondConst calcConst() {
-    if (lhs instanceof IRIntConst && rhs instanceof IRIntConst) {
-      int lhsVal = ((IRIntConst) lhs).val;
-      int rhsVal = ((IRIntConst) rhs).val;
-      boolean resVal = false;
-      switch (op) {
-        case "eq":
-          resVal = lhsVal == rhsVal;
-          break;
-        case "ne":
-          resVal = lhsVal != rhsVal;
-          break;
-        case "sgt":
-          resVal = lhsVal > rhsVal;
-          break;
-        case "sge":
-          resVal = lhsVal >= rhsVal;
-          break;
-        case "slt":
-          resVal = lhsVal < rhsVal;
-          break;
-        case "sle":
-          resVal = lhsVal <= rhsVal;
-          break;
-      }
-      return new IRCondConst(resVal);
-    }
+    if (lhs instanceof IRIntConst && rhs instanceof IRIntConst)
+      return new IRCondConst(compare(op, ((IRIntConst) lhs).val, ((IRIntConst) rhs).val));
     return null;
   }
+
+  public static boolean compare(String op, int lhsVal, int rhsVal) {
+    switch (op) {
+      case "eq":
+        return lhsVal == rhsVal;
+      case "ne":
+        return lhsVal != rhsVal;
+      case "sgt":
+        return lhsVal > rhsVal;
+      case "sge":
+        return lhsVal >= rhsVal;
+      case "slt":
+        return lhsVal < rhsVal;
+      case "sle":
+        return lhsVal <= rhsVal;
+    }
+    return false;
+  }
 }
\ No newline at end of file
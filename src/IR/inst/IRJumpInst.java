@@ -36,4 +36,9 @@ public class IRJumpInst extends IRTerminalInst {
   @Override
   public void replaceUse(IREntity old, IREntity newOne) {
   }
+
+  @Override
+  public void replaceBlock(IRBasicBlock old, IRBasicBlock newOne) {
+    toBlock = toBlock == old ? newOne : toBlock;
+  }
 }
\ No newline at end of file
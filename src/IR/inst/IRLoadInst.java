@@ -10,6 +10,8 @@ public class IRLoadInst extends IRInst {
   public IRRegister destReg;
   public IREntity srcAddr;
   public IRType type;
+  // the source-level kind of the memory read, see middleend.AliasAnalyzer
+  public String typeTag = null;
 
   public IRLoadInst(IRBasicBlock block, IRRegister destReg, IREntity srcAddr) {
     super(block);
@@ -10,6 +10,8 @@ public class IRStoreInst extends IRInst {
   public IRRegister destAddr;
   public int param_idx = -1;
   // if param_idx != -1, then it stores a parameter
+  // the source-level kind of the memory written, see middleend.AliasAnalyzer
+  public String typeTag = null;
 
   public IRStoreInst(IRBasicBlock block, IREntity val, IRRegister destAddr) {
     super(block);
@@ -6,5 +6,8 @@ public abstract class IRTerminalInst extends IRInst {
   public IRTerminalInst(IRBasicBlock block) {
     super(block);
   }
+
+  // redirect the edges to old to newOne
+  public void replaceBlock(IRBasicBlock old, IRBasicBlock newOne) {}
 }
 
@@ -7,6 +7,8 @@ import IR.entity.*;
 public class IRStructType extends IRType {
   public ArrayList<IRType> memberType = new ArrayList<IRType>();
   public HashMap<String, Integer> memberOffset = new HashMap<>();
+  // the byte offset of every member, see calcSize
+  public ArrayList<Integer> memberByte = new ArrayList<>();
   public boolean hasBuild = false;
 
   public IRStructType(String name, int size) {
@@ -26,8 +28,17 @@ public class IRStructType extends IRType {
     return !memberOffset.containsKey(name) ? null : memberType.get(memberOffset.get(name));
   }
 
+  // natural alignment as in LLVM: a bool takes one byte, the others 4 bytes aligned to 4
   public void calcSize() {
-    size = memberType.size() << 2; // 速度大点没事。
+    memberByte.clear();
+    size = 0;
+    for (var type : memberType) {
+      int align = Math.min(type.size, 4);
+      size = (size + align - 1) / align * align;
+      memberByte.add(size);
+      size += type.size;
+    }
+    size = size + 3 & ~3;
   }
 
   @Override
@@ -1,20 +1,14 @@
 package assembly;
 
 import assembly.inst.*;
-import assembly.operand.*;
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 public class ASMBlock {
   public String name; // do not print when null
   public int loopDepth = 0;
-  public LinkedList<ASMInst> insts = new LinkedList<ASMInst>();
-  public LinkedList<ASMInst> phiConvert = new LinkedList<ASMInst>();
-  public LinkedList<ASMInst> jumpOrBr = new LinkedList<ASMInst>();
-  public LinkedList<ASMBlock> succ = new LinkedList<ASMBlock>(), pred = new LinkedList<ASMBlock>();
-  public HashSet<Reg> liveIn = new HashSet<Reg>(), liveOut = new HashSet<Reg>();
-  public HashSet<Reg> use = new HashSet<Reg>(), def = new HashSet<Reg>();
+  public ArrayList<ASMInst> insts = new ArrayList<ASMInst>();
+  public ArrayList<ASMBlock> succ = new ArrayList<ASMBlock>(), pred = new ArrayList<ASMBlock>();
 
   public ASMBlock(String name, int loopDepth) {
     this.name = name;
@@ -22,17 +16,18 @@ public class ASMBlock {
   }
 
   public void addInst(ASMInst inst) {
-    if (inst instanceof ASMJumpInst || inst instanceof ASMBeqzInst || inst instanceof ASMBrCmpInst)
-      jumpOrBr.add(inst);
-    else
-      insts.add(inst);
+    insts.add(inst);
   }
 
-  public String toString() {
-    String ret = "";
-    if (name != null) ret += name + ":\n";
+  public void print(StringBuilder out) {
+    if (name != null) out.append(name).append(":\n");
     for (ASMInst inst : insts)
-      ret += "  " + inst + "\n";
-    return ret;
+      out.append("  ").append(inst).append('\n');
+  }
+
+  public String toString() {
+    StringBuilder ret = new StringBuilder();
+    print(ret);
+    return ret.toString();
   }
-}
\ No newline at end of file
+}
@@ -22,11 +22,16 @@ public class ASMFunction {
     blocks.add(block);
   }
 
-  public String toString() {
-    String ret = "  .text\n" + "  .globl " + name + "\n";
-    ret += name + ":\n";
+  public void print(StringBuilder out) {
+    out.append("  .text\n").append("  .globl ").append(name).append("\n");
+    out.append(name).append(":\n");
     for (ASMBlock block : blocks)
-      ret += block;
-    return ret;
-  }  
+      block.print(out);
+  }
+
+  public String toString() {
+    StringBuilder ret = new StringBuilder();
+    print(ret);
+    return ret.toString();
+  }
 }
\ No newline at end of file
@@ -9,17 +9,22 @@ public class ASMModule {
   public ArrayList<ASMFunction> functions = new ArrayList<ASMFunction>();
 
   public String toString() {
-    String ret = "";
+    StringBuilder ret = new StringBuilder();
     if (globalValues.size() > 0)
-      ret += "  .section .data\n";
+      ret.append("  .section .data\n");
+    // the words first, so that none of them follows a byte
     for (GlobalValue globalValue : globalValues)
-      ret += globalValue;
+      if (globalValue.size == 4)
+        ret.append(globalValue);
+    for (GlobalValue globalValue : globalValues)
+      if (globalValue.size != 4)
+        ret.append(globalValue);
     if (globalStrings.size() > 0)
-      ret += "  .section .rodata\n";
+      ret.append("  .section .rodata\n");
     for (GlobalString globalString : globalStrings)
-      ret += globalString;
+      ret.append(globalString);
     for (ASMFunction function : functions)
-      ret += function;
-    return ret;
+      function.print(ret);
+    return ret.toString();
   }
 }
\ No newline at end of file
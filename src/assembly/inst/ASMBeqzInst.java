@@ -7,6 +7,7 @@ public class ASMBeqzInst extends ASMInst {
   ASMBlock toBlock;
 
   public ASMBeqzInst(Reg rs, ASMBlock toBlock) {
+    this.op = ASMOpcode.BEQZ;
     this.rs1 = rs;
     this.toBlock = toBlock;
   }
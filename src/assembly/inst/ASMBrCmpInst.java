@@ -4,11 +4,10 @@ import assembly.operand.*;
 import assembly.*;
 
 public class ASMBrCmpInst extends ASMInst {
-  String op;
   ASMBlock toBlock;
 
   public ASMBrCmpInst(String op, Reg rs1, Reg rs2, ASMBlock toBlock) {
-    this.op = op;
+    this.op = ASMOpcode.get(op);
     this.toBlock = toBlock;
     this.rs1 = rs1;
     this.rs2 = rs2;
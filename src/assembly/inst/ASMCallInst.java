@@ -1,32 +1,48 @@
 package assembly.inst;
 
 import assembly.operand.*;
-import java.util.HashSet;
+import java.util.ArrayList;
 
 public class ASMCallInst extends ASMInst {
   String funcName;
-  HashSet<Reg> use = new HashSet<>();
-  static HashSet<Reg> def = new HashSet<>(PhysicsReg.callerSave);
+  ArrayList<Reg> use = new ArrayList<>();
+  static Reg[] def = PhysicsReg.callerSave.toArray(new Reg[0]);
 
   public ASMCallInst(String funcName) {
+    this.op = ASMOpcode.CALL;
+    this.funcName = funcName;
+  }
+
+  // a tail call leaves the function, so it clobbers nothing that is read afterwards
+  public ASMCallInst(String funcName, boolean isTail) {
+    this.op = isTail ? ASMOpcode.TAIL : ASMOpcode.CALL;
     this.funcName = funcName;
   }
 
   public void addUse(Reg reg) {
-    use.add(reg);
+    if (!use.contains(reg))
+      use.add(reg);
   }
 
   @Override
-  public HashSet<Reg> getUse() {
-    return use;
+  public int useNum() {
+    return use.size();
+  }
+  @Override
+  public Reg use(int i) {
+    return use.get(i);
+  }
+  @Override
+  public int defNum() {
+    return op == ASMOpcode.TAIL ? 0 : def.length;
   }
   @Override
-  public HashSet<Reg> getDef() {
-    return def;
+  public Reg def(int i) {
+    return def[i];
   }
 
   @Override
   public String toString() {
-    return "call " + funcName;
+    return op + " " + funcName;
   }
-}
\ No newline at end of file
+}
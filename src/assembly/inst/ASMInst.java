@@ -1,26 +1,38 @@
 package assembly.inst;
 
 import assembly.operand.*;
-import java.util.HashSet;
 
+/*
+ * fixed operand slots: rd is the only def, rs1 / rs2 are the uses
+ * (except for call), what the instruction is comes from op
+ */
 public abstract class ASMInst {
+  public ASMOpcode op;
   public Reg rd, rs1, rs2;
   public Imm imm;
 
-  public HashSet<Reg> liveIn = new HashSet<Reg>(), liveOut = new HashSet<Reg>();
-
   public abstract String toString();
 
-  public HashSet<Reg> getUse() {
-    HashSet<Reg> ret = new HashSet<Reg>();
-    if (rs1 != null) ret.add(rs1);
-    if (rs2 != null) ret.add(rs2);
-    return ret;
+  public boolean is(int flag) {
+    return op.is(flag);
+  }
+
+  // operands are queried without allocating
+  public int useNum() {
+    if (rs1 == null)
+      return rs2 == null ? 0 : 1;
+    return rs2 == null || rs2 == rs1 ? 1 : 2;
+  }
+
+  public Reg use(int i) {
+    return i == 0 && rs1 != null ? rs1 : rs2;
+  }
+
+  public int defNum() {
+    return rd == null ? 0 : 1;
   }
 
-  public HashSet<Reg> getDef() {
-    HashSet<Reg> ret = new HashSet<Reg>();
-    if (rd != null) ret.add(rd);
-    return ret;
+  public Reg def(int i) {
+    return rd;
   }
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ public class ASMJumpInst extends ASMInst {
   public ASMBlock toBlock;
 
   public ASMJumpInst(ASMBlock toBlock) {
+    this.op = ASMOpcode.J;
     this.toBlock = toBlock;
   }
 
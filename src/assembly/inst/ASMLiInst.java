@@ -6,6 +6,7 @@ public class ASMLiInst extends ASMInst {
   public VirtualImm pseudoImm;
 
   public ASMLiInst(Reg rd, VirtualImm imm) {
+    this.op = ASMOpcode.LI;
     this.rd = rd;
     this.pseudoImm = imm;
   }
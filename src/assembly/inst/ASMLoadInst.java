@@ -3,11 +3,10 @@ package assembly.inst;
 import assembly.operand.*;
 
 public class ASMLoadInst extends ASMInst {
-  int size;
   // size : 1 -> lb, 4 -> lw
 
   public ASMLoadInst(int size, Reg rd, Reg rs1, Imm imm) {
-    this.size = size;
+    this.op = size == 1 ? ASMOpcode.LB : ASMOpcode.LW;
     this.rd = rd;
     this.rs1 = rs1;
     this.imm = imm;
@@ -18,6 +17,6 @@ public class ASMLoadInst extends ASMInst {
 
   @Override
   public String toString() {
-    return "l" + (size == 1 ? "b" : "w") + " " + rd + ", " + imm + "(" + rs1 + ")";
+    return op + " " + rd + ", " + imm + "(" + rs1 + ")";
   }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import assembly.operand.*;
 
 public class ASMLuiInst extends ASMInst {
   public ASMLuiInst(Reg dest, Imm imm) {
+    this.op = ASMOpcode.LUI;
     this.rd = dest;
     this.imm = imm;
   }
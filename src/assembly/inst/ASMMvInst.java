@@ -4,6 +4,7 @@ import assembly.operand.*;
 
 public class ASMMvInst extends ASMInst {
   public ASMMvInst(Reg rd, Reg rs) {
+    this.op = ASMOpcode.MV;
     this.rd = rd;
     this.rs1 = rs;
   }
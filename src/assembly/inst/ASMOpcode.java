@@ -0,0 +1,67 @@
+package assembly.inst;
+
+import java.util.HashMap;
+
+// the RV32IM instructions (and pseudo instructions) that are emitted
+public enum ASMOpcode {
+  // rd, rs1, rs2
+  ADD("add"), SUB("sub"), MUL("mul"), DIV("div"), REM("rem"), SLL("sll"), SRA("sra"),
+  AND("and"), OR("or"), XOR("xor"), SLT("slt"),
+  // rd, rs1, imm
+  ADDI("addi"), SLLI("slli"), SRAI("srai"), ANDI("andi"), ORI("ori"), XORI("xori"),
+  // rd, rs1
+  SEQZ("seqz"), SNEZ("snez"), MV("mv", ASMOpcode.IS_MOVE),
+  // rd, imm
+  LI("li"), LUI("lui"),
+  LB("lb", ASMOpcode.IS_LOAD), LW("lw", ASMOpcode.IS_LOAD),
+  SB("sb", ASMOpcode.IS_STORE), SW("sw", ASMOpcode.IS_STORE),
+  BEQZ("beqz", ASMOpcode.IS_BRANCH),
+  BEQ("beq", ASMOpcode.IS_BRANCH), BNE("bne", ASMOpcode.IS_BRANCH), BLT("blt", ASMOpcode.IS_BRANCH),
+  BGE("bge", ASMOpcode.IS_BRANCH), BLE("ble", ASMOpcode.IS_BRANCH), BGT("bgt", ASMOpcode.IS_BRANCH),
+  J("j", ASMOpcode.IS_JUMP), CALL("call", ASMOpcode.IS_CALL), RET("ret", ASMOpcode.IS_JUMP),
+  TAIL("tail", ASMOpcode.IS_CALL | ASMOpcode.IS_JUMP);
+
+  public static final int IS_MOVE = 1, IS_LOAD = 2, IS_STORE = 4, IS_BRANCH = 8, IS_JUMP = 16, IS_CALL = 32;
+
+  public final String name;
+  public final int flags;
+
+  ASMOpcode(String name, int flags) {
+    this.name = name;
+    this.flags = flags;
+  }
+
+  ASMOpcode(String name) {
+    this(name, 0);
+  }
+
+  public boolean is(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  static HashMap<String, ASMOpcode> byName = new HashMap<>() {
+    {
+      for (ASMOpcode op : ASMOpcode.values())
+        put(op.name, op);
+      // names used by the IR
+      put("sdiv", DIV);
+      put("srem", REM);
+      put("shl", SLL);
+      put("ashr", SRA);
+      put("shli", SLLI);
+      put("ashri", SRAI);
+    }
+  };
+
+  public static ASMOpcode get(String name) {
+    ASMOpcode op = byName.get(name);
+    if (op == null)
+      throw new IllegalArgumentException("unknown instruction: " + name);
+    return op;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
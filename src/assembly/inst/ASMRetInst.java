@@ -1,6 +1,10 @@
 package assembly.inst;
 
 public class ASMRetInst extends ASMInst {
+  public ASMRetInst() {
+    this.op = ASMOpcode.RET;
+  }
+
   @Override
   public String toString() {
     return "ret";
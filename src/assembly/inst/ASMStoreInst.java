@@ -3,11 +3,10 @@ package assembly.inst;
 import assembly.operand.*;
 
 public class ASMStoreInst extends ASMInst {
-  int size;
   // size : 1 -> sb, 4 -> sw
 
   public ASMStoreInst(int size, Reg rs1, Reg rs2, Imm imm) {
-    this.size = size;
+    this.op = size == 1 ? ASMOpcode.SB : ASMOpcode.SW;
     this.rs1 = rs1;
     this.rs2 = rs2;
     this.imm = imm;
@@ -18,6 +17,6 @@ public class ASMStoreInst extends ASMInst {
 
   @Override
   public String toString() {
-    return "s" + (size == 1 ? "b" : "w") + " " + rs2 + ", " + imm + "(" + rs1 + ")";
+    return op + " " + rs2 + ", " + imm + "(" + rs1 + ")";
   }
 }
\ No newline at end of file
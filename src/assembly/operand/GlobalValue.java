@@ -4,6 +4,8 @@ import IR.entity.*;
 
 public class GlobalValue extends Global {
   public int word, size;
+  // the address of a string instead of the word
+  public String label = null;
   public GlobalValue(IRGlobalVar var) {
     super(var.name);
     if (var.initVal instanceof IRIntConst) {
@@ -12,6 +14,9 @@ public class GlobalValue extends Global {
     } else if (var.initVal instanceof IRBoolConst) {
       word = ((IRBoolConst) var.initVal).val ? 1 : 0;
       size = 1;
+    } else if (var.initVal instanceof IRStringConst str) {
+      label = ".str." + str.id;
+      size = 4;
     } else if (var.initVal instanceof IRNullConst) {
       word = 0;
       size = 4;
@@ -22,7 +27,7 @@ public class GlobalValue extends Global {
 
   public String toString() {
     String ret = name + ":\n";
-    ret += (size == 4 ? "  .word " : "  .byte ") + word + "\n";
+    ret += (size == 4 ? "  .word " : "  .byte ") + (label != null ? label : word) + "\n";
     return ret;
   }
 }
\ No newline at end of file
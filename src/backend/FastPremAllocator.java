@@ -0,0 +1,929 @@
+package backend;
+
+import assembly.*;
+import assembly.inst.*;
+import assembly.operand.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * The same iterated register coalescing as PremAllocator, over dense register ids
+ *  physical register -> PhysicsReg.id, virtual register -> VirtualReg.id + 32
+ * adjSet is a triangular bit matrix, adjList / moveList / degree are int arrays,
+ * and every work list is an intrusive doubly linked list, so removal is O(1).
+ * The interference graph is built once per function: after a spill round the edges
+ * added by coalescing are rolled back, the spilled nodes are cut out and only the
+ * blocks that got spill code are scanned again.
+ */
+
+public class FastPremAllocator {
+  public ASMModule module;
+
+  static final int kCnt = PremAllocator.kCnt, phyCnt = 32;
+  PhysicsReg RegSp = PhysicsReg.regMap.get("sp");
+
+  // node states, the first three are also the ids of the node work lists
+  static final byte SIMPLIFY = 0, FREEZE = 1, SPILL = 2, PRECOLORED = 3, INITIAL = 4, SPILLED = 5,
+      COALESCED = 6, COLORED = 7, SELECT = 8;
+  // move states, only WORKLIST moves are linked in a list
+  static final byte MV_WORKLIST = 0, MV_ACTIVE = 1, MV_COALESCED = 2, MV_CONSTRAINED = 3, MV_FROZEN = 4;
+
+  ASMFunction curFunc;
+  int nodeCnt;
+  Reg[] regOf;
+  byte[] state;
+  int[] degree, alias, color;
+  int[] listPrev, listNext;
+  int[] listHead = new int[3], listTail = new int[3];
+  int[][] adjList, moveList;
+  int[] adjLen, moveLen;
+  double[] spillWeight;
+  boolean[] spillTemp, present;
+  int[] order; // virtual nodes in the order of their first appearance
+  int orderLen;
+  int[] selectStack;
+  int selectTop;
+  IntList spilledNodes = new IntList();
+
+  AdjSet adjSet;
+  // edges added by coalescing, rolled back before the next round
+  IntList coalesceEdges = new IntList();
+  int[] builtAdjLen, builtDegree;
+
+  ArrayList<ASMMvInst> moves = new ArrayList<>();
+  int[] moveDst, moveSrc;
+  byte[] moveState;
+  int[] mvPrev, mvNext;
+  int mvHead, mvTail;
+
+  // live sets of the block ends, the liveness of the other registers doesn't change when spilling
+  int[][] blockLiveOut;
+  boolean[] blockDirty;
+  int weightFrom; // only the nodes from here on get their spill weight in build
+
+  int[] mark;
+  int markEpoch = 0;
+
+  public FastPremAllocator(ASMModule module) {
+    this.module = module;
+  }
+
+  public void work() {
+    for (var func : module.functions)
+      workOnFunc(func);
+  }
+
+  public void workOnFunc(ASMFunction func) {
+    curFunc = func;
+    VirtualReg.cnt = func.virtualRegCnt; // spill temps continue the dense numbering
+    initFunc(func);
+    weightFrom = 0;
+    build(func, true);
+    while (true) {
+      initRound();
+      makeWorkList();
+      do {
+        if (listHead[SIMPLIFY] != -1)
+          stepSimplify();
+        else if (mvHead != -1)
+          stepCoalesce();
+        else if (listHead[FREEZE] != -1)
+          stepFreeze();
+        else if (listHead[SPILL] != -1)
+          stepSelectSpill();
+      } while (listHead[SIMPLIFY] != -1 || mvHead != -1 || listHead[FREEZE] != -1 || listHead[SPILL] != -1);
+      assignColors();
+      if (spilledNodes.size == 0)
+        break;
+      rewriteProgram(func);
+      build(func, false);
+    }
+    func.virtualRegCnt = VirtualReg.cnt;
+
+    for (var block : func.blocks) {
+      var newInsts = new ArrayList<ASMInst>();
+      for (ASMInst inst : block.insts) {
+        if (inst instanceof ASMLiInst && ((ASMLiInst) inst).pseudoImm instanceof StackImm)
+          ((StackImm) ((ASMLiInst) inst).pseudoImm).calc();
+        if (inst.rd instanceof VirtualReg)
+          inst.rd = PhysicsReg.idReg.get(color[idOf(inst.rd)]);
+        if (inst.rs1 instanceof VirtualReg)
+          inst.rs1 = PhysicsReg.idReg.get(color[idOf(inst.rs1)]);
+        if (inst.rs2 instanceof VirtualReg)
+          inst.rs2 = PhysicsReg.idReg.get(color[idOf(inst.rs2)]);
+        if (!(inst instanceof ASMMvInst) || inst.rd != inst.rs1)
+          newInsts.add(inst);
+      }
+      block.insts = newInsts;
+    }
+  }
+
+  static int idOf(Reg reg) {
+    return LivenessAnalyzer.idOf(reg);
+  }
+
+  boolean isPrecolored(int u) {
+    return u < phyCnt;
+  }
+
+  // ------------------------------ graph construction ------------------------------
+
+  void initFunc(ASMFunction func) {
+    nodeCnt = 0;
+    regOf = new Reg[0];
+    growNodes(phyCnt + VirtualReg.cnt);
+    for (var reg : PhysicsReg.regMap.values())
+      regOf[reg.id] = reg;
+    orderLen = 0;
+    adjSet = AdjSet.create(nodeCnt);
+    blockLiveOut = new int[func.blocks.size()][];
+    blockDirty = new boolean[func.blocks.size()];
+    Arrays.fill(blockDirty, true);
+    LivenessAnalyzer liveness = new LivenessAnalyzer(func);
+    liveness.work();
+    int[] buf = new int[liveness.regCnt];
+    for (int i = 0; i < func.blocks.size(); ++i)
+      blockLiveOut[i] = Arrays.copyOf(buf, LivenessAnalyzer.members(liveness.liveOut[i], buf));
+  }
+
+  void growNodes(int newCnt) {
+    if (newCnt <= nodeCnt)
+      return;
+    int oldCnt = nodeCnt;
+    int cap = Math.max(newCnt, regOf.length);
+    if (cap > regOf.length) {
+      cap = Math.max(cap, regOf.length * 3 / 2);
+      regOf = Arrays.copyOf(regOf, cap);
+      state = Arrays.copyOf(state == null ? new byte[0] : state, cap);
+      degree = Arrays.copyOf(degree == null ? new int[0] : degree, cap);
+      alias = Arrays.copyOf(alias == null ? new int[0] : alias, cap);
+      color = Arrays.copyOf(color == null ? new int[0] : color, cap);
+      listPrev = Arrays.copyOf(listPrev == null ? new int[0] : listPrev, cap);
+      listNext = Arrays.copyOf(listNext == null ? new int[0] : listNext, cap);
+      adjList = Arrays.copyOf(adjList == null ? new int[0][] : adjList, cap);
+      moveList = Arrays.copyOf(moveList == null ? new int[0][] : moveList, cap);
+      adjLen = Arrays.copyOf(adjLen == null ? new int[0] : adjLen, cap);
+      moveLen = Arrays.copyOf(moveLen == null ? new int[0] : moveLen, cap);
+      spillWeight = Arrays.copyOf(spillWeight == null ? new double[0] : spillWeight, cap);
+      spillTemp = Arrays.copyOf(spillTemp == null ? new boolean[0] : spillTemp, cap);
+      present = Arrays.copyOf(present == null ? new boolean[0] : present, cap);
+      order = Arrays.copyOf(order == null ? new int[0] : order, cap);
+      selectStack = Arrays.copyOf(selectStack == null ? new int[0] : selectStack, cap);
+      mark = Arrays.copyOf(mark == null ? new int[0] : mark, cap);
+      builtAdjLen = Arrays.copyOf(builtAdjLen == null ? new int[0] : builtAdjLen, cap);
+      builtDegree = Arrays.copyOf(builtDegree == null ? new int[0] : builtDegree, cap);
+    }
+    for (int u = oldCnt; u < newCnt; ++u) {
+      adjList[u] = new int[4];
+      moveList[u] = new int[2];
+      adjLen[u] = moveLen[u] = 0;
+      degree[u] = u < phyCnt ? Integer.MAX_VALUE : 0;
+      spillWeight[u] = 0;
+      spillTemp[u] = present[u] = false;
+      mark[u] = 0;
+    }
+    nodeCnt = newCnt;
+    if (adjSet != null)
+      adjSet = adjSet.grow(nodeCnt);
+  }
+
+  int node(Reg reg) {
+    int u = idOf(reg);
+    if (u >= nodeCnt)
+      growNodes(u + 1);
+    if (regOf[u] == null)
+      regOf[u] = reg;
+    if (!present[u] && !isPrecolored(u)) {
+      present[u] = true;
+      order[orderLen++] = u;
+    }
+    return u;
+  }
+
+  void addEdge(int u, int v) {
+    if (u == v || adjSet.test(u, v))
+      return;
+    adjSet.set(u, v);
+    if (!isPrecolored(u)) {
+      pushAdj(u, v);
+      ++degree[u];
+    }
+    if (!isPrecolored(v)) {
+      pushAdj(v, u);
+      ++degree[v];
+    }
+  }
+
+  void pushAdj(int u, int v) {
+    if (adjLen[u] == adjList[u].length)
+      adjList[u] = Arrays.copyOf(adjList[u], adjLen[u] * 2);
+    adjList[u][adjLen[u]++] = v;
+  }
+
+  void pushMove(int u, int mv) {
+    if (moveLen[u] == moveList[u].length)
+      moveList[u] = Arrays.copyOf(moveList[u], moveLen[u] * 2);
+    moveList[u][moveLen[u]++] = mv;
+  }
+
+  // scan the dirty blocks backward and add their interference edges
+  void build(ASMFunction func, boolean first) {
+    SparseSet live = new SparseSet(nodeCnt);
+    for (int b = 0; b < func.blocks.size(); ++b) {
+      if (!blockDirty[b])
+        continue;
+      blockDirty[b] = false;
+      ASMBlock block = func.blocks.get(b);
+      double weight = Math.pow(10, block.loopDepth);
+      live.clear(nodeCnt);
+      for (int u : blockLiveOut[b])
+        live.add(u);
+      for (int idx = block.insts.size() - 1; idx >= 0; --idx) {
+        ASMInst inst = block.insts.get(idx);
+        int defNum = inst.defNum(), useNum = inst.useNum();
+        for (int i = 0; i < defNum; ++i)
+          node(inst.def(i));
+        for (int i = 0; i < useNum; ++i)
+          node(inst.use(i));
+        live.ensure(nodeCnt);
+        if (inst instanceof ASMMvInst)
+          live.remove(idOf(inst.rs1));
+        for (int i = 0; i < defNum; ++i)
+          live.add(idOf(inst.def(i)));
+        for (int i = 0; i < defNum; ++i) {
+          int d = idOf(inst.def(i));
+          for (int k = 0; k < live.size; ++k)
+            addEdge(d, live.dense[k]);
+        }
+        for (int i = 0; i < defNum; ++i)
+          live.remove(idOf(inst.def(i)));
+        for (int i = 0; i < useNum; ++i)
+          live.add(idOf(inst.use(i)));
+        for (int i = 0; i < defNum; ++i)
+          if (idOf(inst.def(i)) >= weightFrom)
+            spillWeight[idOf(inst.def(i))] += weight;
+        for (int i = 0; i < useNum; ++i)
+          if (idOf(inst.use(i)) >= weightFrom)
+            spillWeight[idOf(inst.use(i))] += weight;
+      }
+    }
+    // keep the order of first appearance as PremAllocator does
+    if (first)
+      orderByAppearance(func);
+    System.arraycopy(adjLen, 0, builtAdjLen, 0, nodeCnt);
+    System.arraycopy(degree, 0, builtDegree, 0, nodeCnt);
+    coalesceEdges.size = 0;
+  }
+
+  void orderByAppearance(ASMFunction func) {
+    for (int i = 0; i < orderLen; ++i)
+      present[order[i]] = false;
+    orderLen = 0;
+    for (var block : func.blocks)
+      for (var inst : block.insts) {
+        for (int i = 0; i < inst.defNum(); ++i)
+          node(inst.def(i));
+        for (int i = 0; i < inst.useNum(); ++i)
+          node(inst.use(i));
+      }
+  }
+
+  // collect the moves in the same order as PremAllocator.build
+  void collectMoves(ASMFunction func) {
+    moves.clear();
+    for (var block : func.blocks) {
+      for (int idx = block.insts.size() - 1; idx >= 0; --idx)
+        if (block.insts.get(idx) instanceof ASMMvInst mv)
+          moves.add(mv);
+    }
+    int cnt = moves.size();
+    if (moveDst == null || moveDst.length < cnt) {
+      int cap = Math.max(cnt, 16);
+      moveDst = new int[cap];
+      moveSrc = new int[cap];
+      moveState = new byte[cap];
+      mvPrev = new int[cap];
+      mvNext = new int[cap];
+    }
+    for (int u = 0; u < nodeCnt; ++u)
+      moveLen[u] = 0;
+    mvHead = mvTail = -1;
+    for (int i = 0; i < cnt; ++i) {
+      ASMMvInst mv = moves.get(i);
+      moveDst[i] = idOf(mv.rd);
+      moveSrc[i] = idOf(mv.rs1);
+      pushMove(moveDst[i], i);
+      if (moveSrc[i] != moveDst[i])
+        pushMove(moveSrc[i], i);
+      moveState[i] = MV_WORKLIST;
+      mvPrev[i] = mvTail;
+      mvNext[i] = -1;
+      if (mvTail != -1)
+        mvNext[mvTail] = i;
+      else
+        mvHead = i;
+      mvTail = i;
+    }
+  }
+
+  void initRound() {
+    // roll back the edges added by coalescing
+    for (int i = 0; i < coalesceEdges.size; i += 2)
+      adjSet.clear(coalesceEdges.data[i], coalesceEdges.data[i + 1]);
+    coalesceEdges.size = 0;
+    System.arraycopy(builtAdjLen, 0, adjLen, 0, nodeCnt);
+    System.arraycopy(builtDegree, 0, degree, 0, nodeCnt);
+    for (int u = 0; u < nodeCnt; ++u) {
+      state[u] = isPrecolored(u) ? PRECOLORED : INITIAL;
+      alias[u] = u;
+      color[u] = isPrecolored(u) ? u : -1;
+    }
+    for (int l = 0; l < 3; ++l)
+      listHead[l] = listTail[l] = -1;
+    selectTop = 0;
+    spilledNodes.size = 0;
+    collectMoves(curFunc);
+  }
+
+  // ------------------------------ work lists ------------------------------
+
+  void pushNode(byte list, int u) {
+    state[u] = list;
+    listPrev[u] = listTail[list];
+    listNext[u] = -1;
+    if (listTail[list] != -1)
+      listNext[listTail[list]] = u;
+    else
+      listHead[list] = u;
+    listTail[list] = u;
+  }
+
+  void removeNode(int u) {
+    byte list = state[u];
+    if (list > SPILL)
+      return;
+    if (listPrev[u] != -1)
+      listNext[listPrev[u]] = listNext[u];
+    else
+      listHead[list] = listNext[u];
+    if (listNext[u] != -1)
+      listPrev[listNext[u]] = listPrev[u];
+    else
+      listTail[list] = listPrev[u];
+  }
+
+  void removeMove(int mv) {
+    if (mvPrev[mv] != -1)
+      mvNext[mvPrev[mv]] = mvNext[mv];
+    else
+      mvHead = mvNext[mv];
+    if (mvNext[mv] != -1)
+      mvPrev[mvNext[mv]] = mvPrev[mv];
+    else
+      mvTail = mvPrev[mv];
+  }
+
+  void appendMove(int mv) {
+    moveState[mv] = MV_WORKLIST;
+    mvPrev[mv] = mvTail;
+    mvNext[mv] = -1;
+    if (mvTail != -1)
+      mvNext[mvTail] = mv;
+    else
+      mvHead = mv;
+    mvTail = mv;
+  }
+
+  boolean isMoveEnabled(int mv) {
+    return moveState[mv] == MV_WORKLIST || moveState[mv] == MV_ACTIVE;
+  }
+
+  boolean moveRelated(int u) {
+    for (int i = 0; i < moveLen[u]; ++i)
+      if (isMoveEnabled(moveList[u][i]))
+        return true;
+    return false;
+  }
+
+  boolean isAdjacent(int v) {
+    return state[v] != SELECT && state[v] != COALESCED;
+  }
+
+  void makeWorkList() {
+    for (int i = 0; i < orderLen; ++i) {
+      int u = order[i];
+      if (degree[u] >= kCnt)
+        pushNode(SPILL, u);
+      else if (moveRelated(u))
+        pushNode(FREEZE, u);
+      else
+        pushNode(SIMPLIFY, u);
+    }
+  }
+
+  void decrementDegree(int u) {
+    if (isPrecolored(u))
+      return;
+    int d = degree[u]--;
+    if (d == kCnt) {
+      enableMoves(u);
+      for (int i = 0; i < adjLen[u]; ++i)
+        if (isAdjacent(adjList[u][i]))
+          enableMoves(adjList[u][i]);
+      removeNode(u);
+      pushNode(moveRelated(u) ? FREEZE : SIMPLIFY, u);
+    }
+  }
+
+  void enableMoves(int u) {
+    for (int i = 0; i < moveLen[u]; ++i) {
+      int mv = moveList[u][i];
+      if (moveState[mv] == MV_ACTIVE)
+        appendMove(mv);
+    }
+  }
+
+  void stepSimplify() {
+    while (listHead[SIMPLIFY] != -1) {
+      int u = listHead[SIMPLIFY];
+      removeNode(u);
+      state[u] = SELECT;
+      selectStack[selectTop++] = u;
+      for (int i = 0; i < adjLen[u]; ++i)
+        if (isAdjacent(adjList[u][i]))
+          decrementDegree(adjList[u][i]);
+    }
+  }
+
+  int getAlias(int u) {
+    int root = u;
+    while (state[root] == COALESCED)
+      root = alias[root];
+    while (state[u] == COALESCED) {
+      int next = alias[u];
+      alias[u] = root;
+      u = next;
+    }
+    return root;
+  }
+
+  void addWorkList(int u) {
+    if (!isPrecolored(u) && !moveRelated(u) && degree[u] < kCnt && state[u] == FREEZE) {
+      removeNode(u);
+      pushNode(SIMPLIFY, u);
+    }
+  }
+
+  boolean George(int t, int r) {
+    return degree[t] < kCnt || isPrecolored(t) || adjSet.test(t, r);
+  }
+
+  boolean Briggs(int u, int v) {
+    ++markEpoch;
+    int k = 0;
+    for (int x : new int[] {u, v})
+      for (int i = 0; i < adjLen[x]; ++i) {
+        int t = adjList[x][i];
+        if (!isAdjacent(t) || mark[t] == markEpoch)
+          continue;
+        mark[t] = markEpoch;
+        if (degree[t] >= kCnt)
+          ++k;
+      }
+    return k < kCnt;
+  }
+
+  void combine(int u, int v) {
+    removeNode(v);
+    state[v] = COALESCED;
+    alias[v] = u;
+    for (int i = 0; i < moveLen[v]; ++i)
+      pushMove(u, moveList[v][i]);
+    enableMoves(v);
+    for (int i = 0; i < adjLen[v]; ++i) {
+      int t = adjList[v][i];
+      if (!isAdjacent(t))
+        continue;
+      if (t != u && !adjSet.test(t, u)) {
+        coalesceEdges.add(t);
+        coalesceEdges.add(u);
+      }
+      addEdge(t, u);
+      decrementDegree(t);
+    }
+    if (degree[u] >= kCnt && state[u] == FREEZE) {
+      removeNode(u);
+      pushNode(SPILL, u);
+    }
+  }
+
+  void stepCoalesce() {
+    int mv = mvHead;
+    removeMove(mv);
+    int x = getAlias(moveDst[mv]), y = getAlias(moveSrc[mv]);
+    int u = x, v = y;
+    if (isPrecolored(y)) {
+      u = y;
+      v = x;
+    }
+    if (u == v) {
+      moveState[mv] = MV_COALESCED;
+      addWorkList(u);
+    } else if (isPrecolored(v) || adjSet.test(u, v) || u == 0 || v == 0) {
+      // zero register can't be coalesced, see PremAllocator.stepCoalesce
+      moveState[mv] = MV_CONSTRAINED;
+      addWorkList(u);
+      addWorkList(v);
+    } else {
+      boolean flag = true;
+      if (isPrecolored(u))
+        for (int i = 0; i < adjLen[v] && flag; ++i)
+          if (isAdjacent(adjList[v][i]))
+            flag = George(adjList[v][i], u);
+      if (isPrecolored(u) && flag || !isPrecolored(u) && Briggs(u, v)) {
+        moveState[mv] = MV_COALESCED;
+        combine(u, v);
+        addWorkList(u);
+      } else {
+        moveState[mv] = MV_ACTIVE;
+      }
+    }
+  }
+
+  void freezeMoves(int u) {
+    for (int i = 0; i < moveLen[u]; ++i) {
+      int mv = moveList[u][i];
+      if (!isMoveEnabled(mv))
+        continue;
+      int x = moveDst[mv], y = moveSrc[mv];
+      int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+      if (moveState[mv] == MV_WORKLIST)
+        removeMove(mv);
+      moveState[mv] = MV_FROZEN;
+      if (state[v] == FREEZE && !moveRelated(v) && degree[v] < kCnt) {
+        removeNode(v);
+        pushNode(SIMPLIFY, v);
+      }
+    }
+  }
+
+  void stepFreeze() {
+    int u = listHead[FREEZE];
+    removeNode(u);
+    pushNode(SIMPLIFY, u);
+    freezeMoves(u);
+  }
+
+  void stepSelectSpill() {
+    int m = -1;
+    for (int u = listHead[SPILL]; u != -1; u = listNext[u])
+      if (m == -1 || spillWeight[u] / degree[u] < spillWeight[m] / degree[m] && !spillTemp[u])
+        m = u;
+    removeNode(m);
+    pushNode(SIMPLIFY, m);
+    freezeMoves(m);
+  }
+
+  void assignColors() {
+    while (selectTop > 0) {
+      int u = selectStack[--selectTop];
+      int okColors = -1 << 5; // 5 ~ 31
+      for (int i = 0; i < adjLen[u]; ++i) {
+        int a = getAlias(adjList[u][i]);
+        if (state[a] == COLORED || state[a] == PRECOLORED)
+          okColors &= ~(1 << color[a]);
+      }
+      if (okColors == 0) {
+        state[u] = SPILLED;
+        spilledNodes.add(u);
+      } else {
+        state[u] = COLORED;
+        color[u] = Integer.numberOfTrailingZeros(okColors);
+      }
+    }
+    for (int i = 0; i < orderLen; ++i) {
+      int u = order[i];
+      if (state[u] == COALESCED)
+        color[u] = color[getAlias(u)];
+    }
+  }
+
+  // ------------------------------ spilling ------------------------------
+
+  ArrayList<ASMInst> newInsts;
+
+  void rewriteProgram(ASMFunction func) {
+    for (int i = 0; i < spilledNodes.size; ++i) {
+      Reg reg = regOf[spilledNodes.data[i]];
+      reg.stackOffset = func.paramUsed + func.allocaUsed + func.spillUsed;
+      func.spillUsed += 4;
+    }
+    int firstTemp = VirtualReg.cnt + phyCnt;
+    weightFrom = firstTemp;
+
+    for (int b = 0; b < func.blocks.size(); ++b) {
+      ASMBlock block = func.blocks.get(b);
+      newInsts = new ArrayList<>();
+      boolean dirty = false;
+      for (ASMInst inst : block.insts) {
+        VirtualReg same = null;
+        if (inst.rs1 != null && inst.rs1.stackOffset != null) {
+          VirtualReg newReg = newTemp();
+          allocateUse(newReg, (VirtualReg) inst.rs1);
+          if (inst.rs1 == inst.rs2)
+            inst.rs2 = newReg;
+          if (inst.rs1 == inst.rd)
+            same = newReg;
+          inst.rs1 = newReg;
+          dirty = true;
+        }
+        if (inst.rs2 != null && inst.rs2.stackOffset != null) {
+          VirtualReg newReg = newTemp();
+          allocateUse(newReg, (VirtualReg) inst.rs2);
+          if (inst.rs2 == inst.rd)
+            same = newReg;
+          inst.rs2 = newReg;
+          dirty = true;
+        }
+        newInsts.add(inst);
+        if (inst.rd != null && inst.rd.stackOffset != null) {
+          VirtualReg newReg = same == null ? newTemp() : same;
+          allocateDef(newReg, (VirtualReg) inst.rd);
+          inst.rd = newReg;
+          dirty = true;
+        }
+      }
+      block.insts = newInsts;
+      blockDirty[b] = dirty;
+    }
+
+    // cut the spilled nodes out of the graph built before coalescing
+    for (int i = 0; i < coalesceEdges.size; i += 2)
+      adjSet.clear(coalesceEdges.data[i], coalesceEdges.data[i + 1]);
+    coalesceEdges.size = 0;
+    System.arraycopy(builtAdjLen, 0, adjLen, 0, nodeCnt);
+    System.arraycopy(builtDegree, 0, degree, 0, nodeCnt);
+    for (int i = 0; i < spilledNodes.size; ++i) {
+      int s = spilledNodes.data[i];
+      for (int j = 0; j < adjLen[s]; ++j) {
+        int t = adjList[s][j];
+        adjSet.clear(s, t);
+        if (isPrecolored(t))
+          continue;
+        for (int k = 0; k < adjLen[t]; ++k)
+          if (adjList[t][k] == s) {
+            adjList[t][k] = adjList[t][--adjLen[t]];
+            break;
+          }
+        --degree[t];
+      }
+      adjLen[s] = degree[s] = 0;
+      present[s] = false;
+    }
+    int keep = 0;
+    for (int i = 0; i < orderLen; ++i)
+      if (present[order[i]])
+        order[keep++] = order[i];
+    orderLen = keep;
+    for (int i = firstTemp; i < nodeCnt; ++i)
+      node(regOf[i]);
+    for (int b = 0; b < blockLiveOut.length; ++b) {
+      int[] ids = blockLiveOut[b];
+      int k = 0;
+      for (int u : ids)
+        if (u < phyCnt || present[u])
+          ids[k++] = u;
+      blockLiveOut[b] = Arrays.copyOf(ids, k);
+    }
+  }
+
+  VirtualReg newTemp() {
+    VirtualReg reg = new VirtualReg(4);
+    int u = idOf(reg);
+    growNodes(u + 1);
+    regOf[u] = reg;
+    spillTemp[u] = true;
+    return reg;
+  }
+
+  void allocateUse(VirtualReg newReg, VirtualReg reg) {
+    if (reg.stackOffset < 1 << 11)
+      newInsts.add(new ASMLoadInst(reg.size, newReg, RegSp, new Imm(reg.stackOffset)));
+    else {
+      newInsts.add(new ASMLiInst(newReg, new VirtualImm(reg.stackOffset)));
+      newInsts.add(new ASMBinaryInst("add", newReg, newReg, RegSp));
+      newInsts.add(new ASMLoadInst(reg.size, newReg, newReg));
+    }
+  }
+
+  void allocateDef(VirtualReg newReg, VirtualReg reg) {
+    if (reg.stackOffset < 1 << 11)
+      newInsts.add(new ASMStoreInst(reg.size, RegSp, newReg, new Imm(reg.stackOffset)));
+    else {
+      VirtualReg addr = newTemp();
+      newInsts.add(new ASMLiInst(addr, new VirtualImm(reg.stackOffset)));
+      newInsts.add(new ASMBinaryInst("add", addr, addr, RegSp));
+      newInsts.add(new ASMStoreInst(reg.size, addr, newReg));
+    }
+  }
+
+  // ------------------------------ containers ------------------------------
+
+  static class IntList {
+    int[] data = new int[16];
+    int size = 0;
+
+    void add(int x) {
+      if (size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = x;
+    }
+  }
+
+  // set of node ids with O(1) add / remove / clear and iteration over the members only
+  static class SparseSet {
+    int[] dense, sparse;
+    int size = 0;
+
+    SparseSet(int cap) {
+      dense = new int[cap];
+      sparse = new int[cap];
+    }
+
+    void ensure(int cap) {
+      if (cap > sparse.length) {
+        dense = Arrays.copyOf(dense, cap * 3 / 2);
+        sparse = Arrays.copyOf(sparse, cap * 3 / 2);
+      }
+    }
+
+    boolean contains(int x) {
+      if (x >= sparse.length)
+        return false;
+      int i = sparse[x];
+      return i < size && dense[i] == x;
+    }
+
+    void add(int x) {
+      if (contains(x))
+        return;
+      sparse[x] = size;
+      dense[size++] = x;
+    }
+
+    void remove(int x) {
+      if (!contains(x))
+        return;
+      int i = sparse[x], last = dense[--size];
+      dense[i] = last;
+      sparse[last] = i;
+    }
+
+    void clear(int cap) {
+      ensure(cap);
+      size = 0;
+    }
+  }
+
+  // symmetric adjacency set, a triangular bit matrix unless the function is huge
+  static abstract class AdjSet {
+    static final long maxMatrixBits = 1L << 30; // 128 MB
+
+    static AdjSet create(int n) {
+      return (long) n * (n - 1) / 2 <= maxMatrixBits ? new BitMatrix(n) : new EdgeHash();
+    }
+
+    abstract boolean test(int u, int v);
+    abstract void set(int u, int v);
+    abstract void clear(int u, int v);
+    abstract AdjSet grow(int n);
+  }
+
+  static class BitMatrix extends AdjSet {
+    long[] bits;
+
+    BitMatrix(int n) {
+      bits = new long[(int) (((long) n * (n - 1) / 2 + 63) >>> 6)];
+    }
+
+    // row v holds the bits of (u, v) for u < v, so growing only appends rows
+    static long index(int u, int v) {
+      if (u > v) {
+        int t = u;
+        u = v;
+        v = t;
+      }
+      return (long) v * (v - 1) / 2 + u;
+    }
+
+    boolean test(int u, int v) {
+      long i = index(u, v);
+      return (bits[(int) (i >>> 6)] & 1L << i) != 0;
+    }
+
+    void set(int u, int v) {
+      long i = index(u, v);
+      bits[(int) (i >>> 6)] |= 1L << i;
+    }
+
+    void clear(int u, int v) {
+      long i = index(u, v);
+      bits[(int) (i >>> 6)] &= ~(1L << i);
+    }
+
+    AdjSet grow(int n) {
+      long need = ((long) n * (n - 1) / 2 + 63) >>> 6;
+      if (need <= bits.length)
+        return this;
+      if (need << 6 > maxMatrixBits) {
+        EdgeHash hash = new EdgeHash();
+        for (int w = 0; w < bits.length; ++w)
+          for (long word = bits[w]; word != 0; word &= word - 1) {
+            long i = ((long) w << 6) + Long.numberOfTrailingZeros(word);
+            int v = (int) ((1 + Math.sqrt(1 + 8.0 * i)) / 2);
+            while ((long) v * (v - 1) / 2 > i)
+              --v;
+            while ((long) (v + 1) * v / 2 <= i)
+              ++v;
+            hash.set((int) (i - (long) v * (v - 1) / 2), v);
+          }
+        return hash;
+      }
+      bits = Arrays.copyOf(bits, (int) Math.max(need, bits.length * 3L / 2));
+      return this;
+    }
+  }
+
+  // open addressing with linear probing, deletion by backward shift
+  static class EdgeHash extends AdjSet {
+    long[] keys = new long[1 << 16];
+    int size = 0;
+
+    EdgeHash() {
+      Arrays.fill(keys, -1);
+    }
+
+    static long key(int u, int v) {
+      return u < v ? (long) u << 32 | v : (long) v << 32 | u;
+    }
+
+    int slot(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 40) & keys.length - 1;
+    }
+
+    boolean test(int u, int v) {
+      long k = key(u, v);
+      for (int i = slot(k); keys[i] != -1; i = i + 1 & keys.length - 1)
+        if (keys[i] == k)
+          return true;
+      return false;
+    }
+
+    void set(int u, int v) {
+      if (size * 2 >= keys.length)
+        rehash();
+      long k = key(u, v);
+      int i = slot(k);
+      for (; keys[i] != -1; i = i + 1 & keys.length - 1)
+        if (keys[i] == k)
+          return;
+      keys[i] = k;
+      ++size;
+    }
+
+    void clear(int u, int v) {
+      long k = key(u, v);
+      int i = slot(k);
+      for (; keys[i] != k; i = i + 1 & keys.length - 1)
+        if (keys[i] == -1)
+          return;
+      keys[i] = -1;
+      --size;
+      for (int j = i + 1 & keys.length - 1; keys[j] != -1; j = j + 1 & keys.length - 1) {
+        int home = slot(keys[j]);
+        // move keys[j] back if its home slot is not in (i, j]
+        if ((j > i && (home <= i || home > j)) || (j < i && home <= i && home > j)) {
+          keys[i] = keys[j];
+          keys[j] = -1;
+          i = j;
+        }
+      }
+    }
+
+    void rehash() {
+      long[] old = keys;
+      keys = new long[old.length * 2];
+      Arrays.fill(keys, -1);
+      size = 0;
+      for (long k : old)
+        if (k != -1)
+          set((int) (k >>> 32), (int) k);
+    }
+
+    AdjSet grow(int n) {
+      return this;
+    }
+  }
+}
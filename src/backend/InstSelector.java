@@ -1,6 +1,8 @@
 package backend;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 import IR.*;
 import IR.inst.*;
@@ -18,6 +20,13 @@ public class InstSelector implements IRVisitor, BuiltinElements {
   int blockCnt = 0;
 
   HashMap<IRBasicBlock, ASMBlock> blockMap = new HashMap<>();
+  // the copies for phi and the jumps are appended to a block after all its other instructions
+  HashMap<ASMBlock, ArrayList<ASMInst>> phiConvert = new HashMap<>(), jumpOrBr = new HashMap<>();
+  // the blocks that end with a tail call, and the virtual registers keeping the callee save registers
+  HashMap<IRBasicBlock, IRCallInst> tailCalls = new HashMap<>();
+  LinkedHashMap<Reg, VirtualReg> calleeSaveCopy = new LinkedHashMap<>();
+  // a compare fused into its branch never writes its register, so it is only fused when the branch is its only user
+  HashMap<IREntity, Integer> useCnt = new HashMap<>();
 
   static HashMap<Integer, Integer> log2 = new HashMap<>() {
     {
@@ -29,9 +38,16 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     this.module = module;
   }
 
+  void addInst(ASMInst inst) {
+    if (inst.is(ASMOpcode.IS_JUMP | ASMOpcode.IS_BRANCH))
+      jumpOrBr.get(curBlock).add(inst);
+    else
+      curBlock.addInst(inst);
+  }
+
   Reg immToReg(VirtualImm imm) {
     VirtualReg reg = new VirtualReg(4);
-    curBlock.addInst(new ASMLiInst(reg, imm));
+    addInst(new ASMLiInst(reg, imm));
     return reg;
   }
 
@@ -44,8 +60,8 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     } else if (entity.asmReg instanceof Global) {
       VirtualReg reg = new VirtualReg(4);
       String name = ((Global) entity.asmReg).name;
-      curBlock.addInst(new ASMLuiInst(reg, new RelocationFunc(RelocationFunc.Type.hi, name)));
-      curBlock.addInst(new ASMUnaryInst("addi", reg, reg, new RelocationFunc(RelocationFunc.Type.lo, name)));
+      addInst(new ASMLuiInst(reg, new RelocationFunc(RelocationFunc.Type.hi, name)));
+      addInst(new ASMUnaryInst("addi", reg, reg, new RelocationFunc(RelocationFunc.Type.lo, name)));
       return reg;
     }
     return entity.asmReg;
@@ -53,21 +69,21 @@ public class InstSelector implements IRVisitor, BuiltinElements {
 
   void storeReg(int size, Reg value, Reg dest, int offset) {
     if (offset < 1 << 11)
-      curBlock.addInst(new ASMStoreInst(size, dest, value, new Imm(offset)));
+      addInst(new ASMStoreInst(size, dest, value, new Imm(offset)));
     else {
       VirtualReg tmp = new VirtualReg(4);
-      curBlock.addInst(new ASMBinaryInst("add", tmp, dest, immToReg(new VirtualImm(offset))));
-      curBlock.addInst(new ASMStoreInst(size, tmp, value));
+      addInst(new ASMBinaryInst("add", tmp, dest, immToReg(new VirtualImm(offset))));
+      addInst(new ASMStoreInst(size, tmp, value));
     }
   }
 
   void loadReg(int size, Reg dest, Reg src, int offset) {
     if (offset < 1 << 11)
-      curBlock.addInst(new ASMLoadInst(size, dest, src, new Imm(offset)));
+      addInst(new ASMLoadInst(size, dest, src, new Imm(offset)));
     else {
       VirtualReg tmp = new VirtualReg(4);
-      curBlock.addInst(new ASMBinaryInst("add", tmp, src, immToReg(new VirtualImm(offset))));
-      curBlock.addInst(new ASMLoadInst(size, dest, tmp));
+      addInst(new ASMBinaryInst("add", tmp, src, immToReg(new VirtualImm(offset))));
+      addInst(new ASMLoadInst(size, dest, tmp));
     }
   }
 
@@ -96,15 +112,27 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     // find max argument cnt
     int maxArgCnt = 0;
     for (IRBasicBlock blk : node.blocks) {
-      blockMap.put(blk, new ASMBlock(".L" + blockCnt++, blk.loopDepth));
+      ASMBlock block = new ASMBlock(".L" + blockCnt++, blk.loopDepth);
+      blockMap.put(blk, block);
+      phiConvert.put(block, new ArrayList<>());
+      jumpOrBr.put(block, new ArrayList<>());
       for (IRInst inst : blk.insts)
         if (inst instanceof IRCallInst)
           maxArgCnt = Math.max(maxArgCnt, ((IRCallInst) inst).args.size());
+      for (IRInst inst : blk.phiInsts)
+        countUse(inst);
+      for (IRInst inst : blk.insts)
+        countUse(inst);
+      countUse(blk.terminalInst);
     }
     curFunc.paramUsed = (maxArgCnt > 8 ? maxArgCnt - 8 : 0) << 2;
     // set params
     for (int i = 0; i < node.params.size() && i < 8; ++i)
       node.params.get(i).asmReg = new VirtualReg(node.params.get(i).type.size);
+    if (!node.name.equals("main"))
+      for (var reg : PhysicsReg.calleeSave)
+        calleeSaveCopy.put(reg, new VirtualReg(4));
+    collectTailCalls(node);
 
     for (int i = 0; i < node.blocks.size(); ++i) {
       curBlock = blockMap.get(node.blocks.get(i));
@@ -115,28 +143,94 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     }
     curFunc.entryBlock = curFunc.blocks.get(0);
     curFunc.exitBlock = curFunc.blocks.get(curFunc.blocks.size() - 1);
+    ArrayList<ASMInst> prologue = new ArrayList<>();
     for (int i = 0; i < node.params.size() && i < 8; ++i)
-      curFunc.entryBlock.insts.addFirst(new ASMMvInst(node.params.get(i).asmReg, PhysicsReg.get("a" + i)));
+      prologue.add(0, new ASMMvInst(node.params.get(i).asmReg, PhysicsReg.get("a" + i)));
     // add callee save
-    if (!node.name.equals("main"))
-      for (var reg : PhysicsReg.calleeSave) {
-        VirtualReg storeReg = new VirtualReg(4);
-        curFunc.entryBlock.insts.addFirst(new ASMMvInst(storeReg, reg));
-        curFunc.exitBlock.insts.addLast(new ASMMvInst(reg, storeReg));
-      }
+    calleeSaveCopy.forEach((reg, storeReg) -> {
+      prologue.add(0, new ASMMvInst(storeReg, reg));
+      curFunc.exitBlock.insts.add(new ASMMvInst(reg, storeReg));
+    });
+    curFunc.entryBlock.insts.addAll(0, prologue);
     curFunc.virtualRegCnt = VirtualReg.cnt;
     for (var block : curFunc.blocks) {
-      block.insts.addAll(block.phiConvert);
-      block.insts.addAll(block.jumpOrBr);
+      block.insts.addAll(phiConvert.get(block));
+      block.insts.addAll(jumpOrBr.get(block));
+    }
+    phiConvert.clear();
+    jumpOrBr.clear();
+    tailCalls.clear();
+    calleeSaveCopy.clear();
+    useCnt.clear();
+  }
+
+  void countUse(IRInst inst) {
+    for (var entity : inst.getUse())
+      useCnt.merge(entity, 1, Integer::sum);
+  }
+
+  /*
+   * a call whose value is returned right away becomes a tail call, the callee returns to our caller
+   * its stack arguments are written over our own ones, so there must be no more of them than we
+   * received, and no argument may point into our frame, which is gone when the callee runs
+   */
+  void collectTailCalls(IRFunction func) {
+    for (var inst : func.entryBlock.insts)
+      if (inst instanceof IRAllocaInst alloca && alloca.param_idx < 8)
+        return;
+    for (var block : func.blocks) {
+      if (block.insts.isEmpty())
+        continue;
+      IRInst last = block.insts.getLast();
+      if (last instanceof IRZextInst && block.insts.size() > 1)
+        last = block.insts.get(block.insts.size() - 2);
+      if (last instanceof IRCallInst call && call.isTail()
+          && call.args.size() - 8 <= Math.max(func.params.size() - 8, 0))
+        tailCalls.put(block, call);
     }
   }
 
+  void tailCall(IRCallInst node) {
+    ASMCallInst callInst = new ASMCallInst(node.funcName, true);
+    for (int i = 0; i < node.args.size(); ++i) {
+      IREntity arg = node.args.get(i);
+      if (i < 8) {
+        addInst(new ASMMvInst(PhysicsReg.get("a" + i), getReg(arg)));
+        callInst.addUse(PhysicsReg.get("a" + i));
+      } else {
+        VirtualReg addr = new VirtualReg(4);
+        addInst(new ASMLiInst(addr, new StackImm(curFunc, i - 8 << 2)));
+        addInst(new ASMBinaryInst("add", addr, PhysicsReg.get("sp"), addr));
+        addInst(new ASMStoreInst(arg.type.size, addr, getReg(arg)));
+      }
+    }
+    // the epilogue of the exit block, the sp is restored right before the tail call by StackManager
+    calleeSaveCopy.forEach((reg, storeReg) -> {
+      addInst(new ASMMvInst(reg, storeReg));
+      callInst.addUse(reg);
+    });
+    loadReg(4, PhysicsReg.get("ra"), PhysicsReg.get("sp"), curFunc.paramUsed);
+    callInst.addUse(PhysicsReg.get("ra"));
+    addInst(callInst);
+  }
+
   public void visit(IRBasicBlock node) {
+    IRCallInst tailCall = tailCalls.get(node);
+    if (tailCall != null) {
+      for (var inst : node.insts) {
+        if (inst == tailCall)
+          break;
+        inst.accept(this);
+      }
+      tailCall(tailCall);
+      return;
+    }
     for (var inst : node.insts)
       if (inst != node.insts.getLast())
         inst.accept(this);
-    if (node.terminalInst instanceof IRBranchInst brInst && node.insts.getLast() instanceof IRIcmpInst cmpInst
-        && brInst.getUse().contains(cmpInst.cmpReg)) {
+    if (node.terminalInst instanceof IRBranchInst brInst && !node.insts.isEmpty()
+        && node.insts.getLast() instanceof IRIcmpInst cmpInst
+        && brInst.getUse().contains(cmpInst.cmpReg) && useCnt.get(cmpInst.cmpReg) == 1) {
       combineCmpAndBranch(cmpInst, brInst);
     } else {
       if (!node.insts.isEmpty())
@@ -155,10 +249,10 @@ public class InstSelector implements IRVisitor, BuiltinElements {
       case "slt": op = "bge"; break;
       case "sle": op = "bgt"; break;
     }
-    curBlock.addInst(new ASMBrCmpInst(op, getReg(cmpInst.lhs), getReg(cmpInst.rhs), blockMap.get(brInst.elseBlock)));
+    addInst(new ASMBrCmpInst(op, getReg(cmpInst.lhs), getReg(cmpInst.rhs), blockMap.get(brInst.elseBlock)));
     curBlock.succ.add(blockMap.get(brInst.elseBlock));
     blockMap.get(brInst.elseBlock).pred.add(curBlock);
-    curBlock.addInst(new ASMJumpInst(blockMap.get(brInst.thenBlock)));
+    addInst(new ASMJumpInst(blockMap.get(brInst.thenBlock)));
     curBlock.succ.add(blockMap.get(brInst.thenBlock));
     blockMap.get(brInst.thenBlock).pred.add(curBlock);
   }
@@ -173,23 +267,24 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     if (node.param_idx < 8) {
       int offset = curFunc.paramUsed + curFunc.allocaUsed;
       if (offset < 1 << 11)
-        curBlock.addInst(new ASMUnaryInst("addi", getReg(node.allocaReg), PhysicsReg.get("sp"), new Imm(offset)));
+        addInst(new ASMUnaryInst("addi", getReg(node.allocaReg), PhysicsReg.get("sp"), new Imm(offset)));
       else
-        curBlock.addInst(new ASMBinaryInst("add", getReg(node.allocaReg), PhysicsReg.get("sp"),
+        addInst(new ASMBinaryInst("add", getReg(node.allocaReg), PhysicsReg.get("sp"),
             immToReg(new VirtualImm(offset))));
-      curFunc.allocaUsed += 4;
+      // a stack array takes its bytes rounded up to words
+      curFunc.allocaUsed += node.count == 1 ? 4 : (node.count * (node.type == irCharType ? 1 : 4) + 3) & ~3;
     } else {
       VirtualReg reg = new VirtualReg(4);
-      curBlock.addInst(new ASMLiInst(reg, new StackImm(curFunc, node.param_idx - 8 << 2)));
-      curBlock.addInst(new ASMBinaryInst("add", getReg(node.allocaReg), PhysicsReg.get("sp"), reg));
+      addInst(new ASMLiInst(reg, new StackImm(curFunc, node.param_idx - 8 << 2)));
+      addInst(new ASMBinaryInst("add", getReg(node.allocaReg), PhysicsReg.get("sp"), reg));
     }
   }
 
   public void visit(IRBranchInst node) {
-    curBlock.addInst(new ASMBeqzInst(getReg(node.cond), blockMap.get(node.elseBlock)));
+    addInst(new ASMBeqzInst(getReg(node.cond), blockMap.get(node.elseBlock)));
     curBlock.succ.add(blockMap.get(node.elseBlock));
     blockMap.get(node.elseBlock).pred.add(curBlock);
-    curBlock.addInst(new ASMJumpInst(blockMap.get(node.thenBlock)));
+    addInst(new ASMJumpInst(blockMap.get(node.thenBlock)));
     curBlock.succ.add(blockMap.get(node.thenBlock));
     blockMap.get(node.thenBlock).pred.add(curBlock);
   }
@@ -208,15 +303,15 @@ public class InstSelector implements IRVisitor, BuiltinElements {
       case "shl":
       case "ashr":
         if (node.rhs instanceof IRIntConst intConst && intConst.val < 1 << 11 && intConst.val >= -(1 << 11))
-          curBlock.addInst(new ASMUnaryInst(node.op + "i", getReg(node.res), getReg(node.lhs), new Imm(intConst.val)));
+          addInst(new ASMUnaryInst(node.op + "i", getReg(node.res), getReg(node.lhs), new Imm(intConst.val)));
         else
-          curBlock.addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
+          addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
         break;
       case "sub":
         if (node.rhs instanceof IRIntConst intConst && intConst.val <= 1 << 11 && intConst.val > -(1 << 11))
-          curBlock.addInst(new ASMUnaryInst("addi", getReg(node.res), getReg(node.lhs), new Imm(-intConst.val)));
+          addInst(new ASMUnaryInst("addi", getReg(node.res), getReg(node.lhs), new Imm(-intConst.val)));
         else
-          curBlock.addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
+          addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
         break;
       case "mul":
         if (node.lhs instanceof IRIntConst intConst && log2.containsKey(intConst.val)) {
@@ -225,18 +320,18 @@ public class InstSelector implements IRVisitor, BuiltinElements {
           node.rhs = tmp;
         }
         if (node.rhs instanceof IRIntConst intConst && log2.containsKey(intConst.val))
-          curBlock.addInst(new ASMUnaryInst("slli", getReg(node.res), getReg(node.lhs), new Imm(log2.get(intConst.val))));
+          addInst(new ASMUnaryInst("slli", getReg(node.res), getReg(node.lhs), new Imm(log2.get(intConst.val))));
         else
-          curBlock.addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
+          addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
         break;
       case "sdiv":
         if (node.rhs instanceof IRIntConst intConst && log2.containsKey(intConst.val))
-          curBlock.addInst(new ASMUnaryInst("srai", getReg(node.res), getReg(node.lhs), new Imm(log2.get(intConst.val))));
+          addInst(new ASMUnaryInst("srai", getReg(node.res), getReg(node.lhs), new Imm(log2.get(intConst.val))));
         else
-          curBlock.addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
+          addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
         break;
       default:
-        curBlock.addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
+        addInst(new ASMBinaryInst(node.op, getReg(node.res), getReg(node.lhs), getReg(node.rhs)));
     }
   }
 
@@ -245,31 +340,46 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     for (int i = 0; i < node.args.size(); ++i) {
       IREntity arg = node.args.get(i);
       if (i < 8) {
-        curBlock.addInst(new ASMMvInst(PhysicsReg.get("a" + i), getReg(arg)));
+        addInst(new ASMMvInst(PhysicsReg.get("a" + i), getReg(arg)));
         callInst.addUse(PhysicsReg.get("a" + i));
       } else
         storeReg(arg.type.size, getReg(arg), PhysicsReg.get("sp"), i - 8 << 2);
     }
-    curBlock.addInst(callInst);
+    addInst(callInst);
     if (node.callReg != null)
-      curBlock.addInst(new ASMMvInst(getReg(node.callReg), PhysicsReg.get("a0")));
+      addInst(new ASMMvInst(getReg(node.callReg), PhysicsReg.get("a0")));
   }
 
   public void visit(IRCastInst node) {
-    curBlock.addInst(new ASMMvInst(getReg(node.dest), getReg(node.val)));
+    addInst(new ASMMvInst(getReg(node.dest), getReg(node.val)));
   }
 
   public void visit(IRGetElementPtrInst node) {
+    IREntity index = node.pToType instanceof IRStructType ? node.indexList.get(1) : node.indexList.get(0);
+    if (index instanceof IRIntConst intConst) {
+      // constant offsets are folded into an addi
+      int offset = node.pToType == irBoolType ? intConst.val : intConst.val << 2;
+      if (node.pToType instanceof IRStructType structType)
+        offset = structType.memberByte.get(intConst.val);
+      if (offset == 0) {
+        addInst(new ASMMvInst(getReg(node.res), getReg(node.ptr)));
+        return;
+      }
+      if (offset < 1 << 11 && offset >= -(1 << 11)) {
+        addInst(new ASMUnaryInst("addi", getReg(node.res), getReg(node.ptr), new Imm(offset)));
+        return;
+      }
+    }
     if (node.pToType == irBoolType) {
-      curBlock.addInst(new ASMBinaryInst("add", getReg(node.res), getReg(node.ptr), getReg(node.indexList.get(0))));
+      addInst(new ASMBinaryInst("add", getReg(node.res), getReg(node.ptr), getReg(node.indexList.get(0))));
     } else {
       Reg idx = node.pToType instanceof IRStructType ? getReg(node.indexList.get(1)) : getReg(node.indexList.get(0));
       VirtualReg tmp = new VirtualReg(4);
       if (idx == PhysicsReg.get("zero"))
-        curBlock.addInst(new ASMMvInst(getReg(node.res), getReg(node.ptr)));
+        addInst(new ASMMvInst(getReg(node.res), getReg(node.ptr)));
       else {
-        curBlock.addInst(new ASMUnaryInst("slli", tmp, idx, new Imm(2)));
-        curBlock.addInst(new ASMBinaryInst("add", getReg(node.res), getReg(node.ptr), tmp));
+        addInst(new ASMUnaryInst("slli", tmp, idx, new Imm(2)));
+        addInst(new ASMBinaryInst("add", getReg(node.res), getReg(node.ptr), tmp));
       }
     }
   }
@@ -280,32 +390,32 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     VirtualReg tmp = new VirtualReg(4);
     switch (node.op) {
       case "eq":
-        curBlock.addInst(new ASMBinaryInst("sub", tmp, getReg(node.lhs), getReg(node.rhs)));
-        curBlock.addInst(new ASMUnaryInst("seqz", getReg(node.cmpReg), tmp));
+        addInst(new ASMBinaryInst("sub", tmp, getReg(node.lhs), getReg(node.rhs)));
+        addInst(new ASMUnaryInst("seqz", getReg(node.cmpReg), tmp));
         break;
       case "ne":
-        curBlock.addInst(new ASMBinaryInst("sub", tmp, getReg(node.lhs), getReg(node.rhs)));
-        curBlock.addInst(new ASMUnaryInst("snez", getReg(node.cmpReg), tmp));
+        addInst(new ASMBinaryInst("sub", tmp, getReg(node.lhs), getReg(node.rhs)));
+        addInst(new ASMUnaryInst("snez", getReg(node.cmpReg), tmp));
         break;
       case "sgt":
-        curBlock.addInst(new ASMBinaryInst("slt", getReg(node.cmpReg), getReg(node.rhs), getReg(node.lhs)));
+        addInst(new ASMBinaryInst("slt", getReg(node.cmpReg), getReg(node.rhs), getReg(node.lhs)));
         break;
       case "sge":
-        curBlock.addInst(new ASMBinaryInst("slt", tmp, getReg(node.lhs), getReg(node.rhs)));
-        curBlock.addInst(new ASMUnaryInst("xori", getReg(node.cmpReg), tmp, new Imm(1)));
+        addInst(new ASMBinaryInst("slt", tmp, getReg(node.lhs), getReg(node.rhs)));
+        addInst(new ASMUnaryInst("xori", getReg(node.cmpReg), tmp, new Imm(1)));
         break;
       case "slt":
-        curBlock.addInst(new ASMBinaryInst("slt", getReg(node.cmpReg), getReg(node.lhs), getReg(node.rhs)));
+        addInst(new ASMBinaryInst("slt", getReg(node.cmpReg), getReg(node.lhs), getReg(node.rhs)));
         break;
       case "sle":
-        curBlock.addInst(new ASMBinaryInst("slt", tmp, getReg(node.rhs), getReg(node.lhs)));
-        curBlock.addInst(new ASMUnaryInst("xori", getReg(node.cmpReg), tmp, new Imm(1)));
+        addInst(new ASMBinaryInst("slt", tmp, getReg(node.rhs), getReg(node.lhs)));
+        addInst(new ASMUnaryInst("xori", getReg(node.cmpReg), tmp, new Imm(1)));
         break;
     }
   }
 
   public void visit(IRJumpInst node) {
-    curBlock.addInst(new ASMJumpInst(blockMap.get(node.toBlock)));
+    addInst(new ASMJumpInst(blockMap.get(node.toBlock)));
     curBlock.succ.add(blockMap.get(node.toBlock));
     blockMap.get(node.toBlock).pred.add(curBlock);
   }
@@ -313,9 +423,11 @@ public class InstSelector implements IRVisitor, BuiltinElements {
   public void visit(IRLoadInst node) {
     if (node.srcAddr.asmReg instanceof Global global) {
       String name = global.name;
-      Reg reg = getReg(node.destReg);
-      curBlock.addInst(new ASMLuiInst(reg, new RelocationFunc(RelocationFunc.Type.hi, name)));
-      curBlock.addInst(new ASMLoadInst(node.type.size, reg, reg, new RelocationFunc(RelocationFunc.Type.lo, name)));
+      // the address needs a full word even if the value is a byte
+      VirtualReg reg = new VirtualReg(4);
+      addInst(new ASMLuiInst(reg, new RelocationFunc(RelocationFunc.Type.hi, name)));
+      addInst(new ASMLoadInst(node.type.size, getReg(node.destReg), reg,
+          new RelocationFunc(RelocationFunc.Type.lo, name)));
     } else
       loadReg(node.type.size, getReg(node.destReg), getReg(node.srcAddr), 0);
   }
@@ -323,7 +435,7 @@ public class InstSelector implements IRVisitor, BuiltinElements {
   public void visit(IRRetInst node) {
     // ret val -> load val to a0 and return
     if (node.val != irVoidConst)
-      curBlock.addInst(new ASMMvInst(PhysicsReg.get("a0"), getReg(node.val)));
+      addInst(new ASMMvInst(PhysicsReg.get("a0"), getReg(node.val)));
     loadReg(4, PhysicsReg.get("ra"), PhysicsReg.get("sp"), curFunc.paramUsed);
     // 寄存器分配完再加 ret
   }
@@ -336,8 +448,8 @@ public class InstSelector implements IRVisitor, BuiltinElements {
     if (node.destAddr.asmReg instanceof Global global) {
       String name = global.name;
       VirtualReg reg = new VirtualReg(4);
-      curBlock.addInst(new ASMLuiInst(reg, new RelocationFunc(RelocationFunc.Type.hi, name)));
-      curBlock.addInst(new ASMStoreInst(node.val.type.size, reg, getReg(node.val),
+      addInst(new ASMLuiInst(reg, new RelocationFunc(RelocationFunc.Type.hi, name)));
+      addInst(new ASMStoreInst(node.val.type.size, reg, getReg(node.val),
           new RelocationFunc(RelocationFunc.Type.lo, name)));
     } else
       storeReg(node.val.type.size, getReg(node.val), getReg(node.destAddr), 0);
@@ -345,13 +457,15 @@ public class InstSelector implements IRVisitor, BuiltinElements {
 
   public void visit(IRPhiInst node) {
     VirtualReg tmp = new VirtualReg(node.dest.type.size);
-    curBlock.addInst(new ASMMvInst(getReg(node.dest), tmp));
+    addInst(new ASMMvInst(getReg(node.dest), tmp));
     for (int i = 0; i < node.values.size(); ++i) {
       IREntity val = node.values.get(i);
+      if (tailCalls.containsKey(node.blocks.get(i)))
+        continue;
       if (val instanceof IRConst constVal)
-        blockMap.get(node.blocks.get(i)).phiConvert.add(new ASMLiInst(tmp, new VirtualImm(constVal)));
+        phiConvert.get(blockMap.get(node.blocks.get(i))).add(new ASMLiInst(tmp, new VirtualImm(constVal)));
       else
-        blockMap.get(node.blocks.get(i)).phiConvert.add(new ASMMvInst(tmp, getReg(node.values.get(i))));
+        phiConvert.get(blockMap.get(node.blocks.get(i))).add(new ASMMvInst(tmp, getReg(node.values.get(i))));
     }
   }
 }
\ No newline at end of file
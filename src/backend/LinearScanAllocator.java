@@ -0,0 +1,378 @@
+package backend;
+
+import assembly.*;
+import assembly.inst.*;
+import assembly.operand.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * Linear scan register allocation on lifetime intervals with holes (second-chance binpacking)
+ * reference: Traub, Holloway, Smith. Quality and Speed in Linear-scan Register Allocation
+ *            Wimmer, Mössenböck. Optimized Interval Splitting in a Linear Scan Register Allocator
+ * instruction i uses its operands at 2i and defines its result at 2i + 1,
+ * an interval is a sorted list of half-open ranges over these positions,
+ * and a register can hold several intervals as long as their ranges don't overlap.
+ * physical registers get fixed intervals from the code itself,
+ * so call clobbers, argument registers and the callee save moves are respected.
+ * intervals are never split: the one that loses a register is spilled everywhere,
+ * t0 ~ t2 are kept out of allocation for the reloads, as in RegAllocator.
+ */
+
+public class LinearScanAllocator {
+  ASMModule module;
+
+  static final int phyCnt = LivenessAnalyzer.phyCnt, INF = Integer.MAX_VALUE;
+  PhysicsReg RegT0 = PhysicsReg.regMap.get("t0");
+  PhysicsReg RegT1 = PhysicsReg.regMap.get("t1");
+  PhysicsReg RegT2 = PhysicsReg.regMap.get("t2");
+  PhysicsReg RegSp = PhysicsReg.regMap.get("sp");
+
+  // allocatable registers in the order they are tried, t0 ~ t2 are the scratch registers
+  static final int[] allocatable = new int[32 - 8];
+  static {
+    int k = 0;
+    for (int id = 28; id < 32; ++id) // t3 ~ t6
+      allocatable[k++] = id;
+    for (int id = 10; id < 18; ++id) // a0 ~ a7
+      allocatable[k++] = id;
+    for (int id = 8; id < 10; ++id) // s0, s1
+      allocatable[k++] = id;
+    for (int id = 18; id < 28; ++id) // s2 ~ s11
+      allocatable[k++] = id;
+  }
+
+  static class Interval {
+    int id, reg = -1, hintPhy = -1, hintVirt = -1;
+    int[] ranges = new int[4]; // from, to, from, to, ...
+    int size = 0, cursor = 0;
+    double weight = 0;
+    boolean spilled = false;
+
+    Interval(int id) {
+      this.id = id;
+    }
+
+    // the ranges are added backward, so the last pair has the smallest positions
+    void addRange(int from, int to) {
+      if (from >= to)
+        return;
+      if (size > 0 && ranges[size - 2] <= to) {
+        ranges[size - 2] = Math.min(ranges[size - 2], from);
+        ranges[size - 1] = Math.max(ranges[size - 1], to);
+        return;
+      }
+      if (size == ranges.length)
+        ranges = Arrays.copyOf(ranges, size * 2);
+      ranges[size++] = from;
+      ranges[size++] = to;
+    }
+
+    void setFrom(int from) {
+      if (size > 0 && ranges[size - 2] <= from && from < ranges[size - 1])
+        ranges[size - 2] = from;
+      else
+        addRange(from, from + 1); // the value is never used
+    }
+
+    void finish() {
+      for (int i = 0, j = size - 2; i < j; i += 2, j -= 2) {
+        int from = ranges[i], to = ranges[i + 1];
+        ranges[i] = ranges[j];
+        ranges[i + 1] = ranges[j + 1];
+        ranges[j] = from;
+        ranges[j + 1] = to;
+      }
+    }
+
+    int start() {
+      return ranges[0];
+    }
+
+    int end() {
+      return ranges[size - 1];
+    }
+
+    // long intervals with few uses are the cheapest to spill
+    double density() {
+      return weight / (end() - start());
+    }
+
+    // positions only move forward, so the cursor skips the ranges before pos for good
+    void advance(int pos) {
+      while (cursor < size && ranges[cursor + 1] <= pos)
+        cursor += 2;
+    }
+
+    boolean covers(int pos) {
+      advance(pos);
+      return cursor < size && ranges[cursor] <= pos;
+    }
+
+    int nextIntersection(Interval other) {
+      int i = cursor, j = other.cursor;
+      while (i < size && j < other.size) {
+        int from = Math.max(ranges[i], other.ranges[j]);
+        if (from < ranges[i + 1] && from < other.ranges[j + 1])
+          return from;
+        if (ranges[i + 1] <= other.ranges[j + 1])
+          i += 2;
+        else
+          j += 2;
+      }
+      return INF;
+    }
+  }
+
+  Interval[] intervals;
+  Interval[] fixed = new Interval[phyCnt];
+  ArrayList<Interval> active = new ArrayList<>(), inactive = new ArrayList<>();
+  int[] freeUntil = new int[phyCnt];
+  boolean[] fixedFree = new boolean[phyCnt];
+  double[] evictCost = new double[phyCnt];
+
+  public LinearScanAllocator(ASMModule module) {
+    this.module = module;
+  }
+
+  public void work() {
+    for (var func : module.functions)
+      workOnFunc(func);
+  }
+
+  public void workOnFunc(ASMFunction func) {
+    VirtualReg.cnt = func.virtualRegCnt;
+    LivenessAnalyzer liveness = new LivenessAnalyzer(func);
+    liveness.work();
+    buildIntervals(func, liveness);
+    allocate();
+    rewrite(func, liveness);
+  }
+
+  Interval interval(int id) {
+    if (intervals[id] == null)
+      intervals[id] = new Interval(id);
+    return intervals[id];
+  }
+
+  void buildIntervals(ASMFunction func, LivenessAnalyzer liveness) {
+    intervals = new Interval[liveness.regCnt];
+    int[] blockFrom = new int[func.blocks.size()];
+    int instCnt = 0;
+    for (int b = 0; b < func.blocks.size(); ++b) {
+      blockFrom[b] = instCnt << 1;
+      instCnt += func.blocks.get(b).insts.size();
+    }
+    int[] live = new int[liveness.regCnt];
+    for (int b = func.blocks.size() - 1; b >= 0; --b) {
+      ASMBlock block = func.blocks.get(b);
+      int from = blockFrom[b], to = from + (block.insts.size() << 1);
+      double weight = Math.pow(10, block.loopDepth);
+      int liveCnt = LivenessAnalyzer.members(liveness.liveOut[b], live);
+      for (int k = 0; k < liveCnt; ++k)
+        interval(live[k]).addRange(from, to);
+      for (int i = block.insts.size() - 1; i >= 0; --i) {
+        ASMInst inst = block.insts.get(i);
+        int pos = from + (i << 1);
+        for (int k = 0; k < inst.defNum(); ++k) {
+          Interval it = interval(LivenessAnalyzer.idOf(inst.def(k)));
+          it.setFrom(pos + 1);
+          it.weight += weight;
+        }
+        for (int k = 0; k < inst.useNum(); ++k) {
+          Interval it = interval(LivenessAnalyzer.idOf(inst.use(k)));
+          it.addRange(from, pos + 1);
+          it.weight += weight;
+        }
+        if (inst instanceof ASMMvInst) {
+          int rd = LivenessAnalyzer.idOf(inst.rd), rs = LivenessAnalyzer.idOf(inst.rs1);
+          hint(rd, rs);
+          hint(rs, rd);
+        }
+      }
+    }
+    for (var it : intervals)
+      if (it != null)
+        it.finish();
+    for (int r = 0; r < phyCnt; ++r)
+      fixed[r] = intervals[r] != null && intervals[r].size > 0 ? intervals[r] : null;
+  }
+
+  void hint(int u, int v) {
+    if (u < phyCnt)
+      return;
+    if (v < phyCnt)
+      interval(u).hintPhy = v;
+    else if (interval(u).hintVirt == -1)
+      interval(u).hintVirt = v;
+  }
+
+  void allocate() {
+    ArrayList<Interval> unhandled = new ArrayList<>();
+    for (int id = phyCnt; id < intervals.length; ++id)
+      if (intervals[id] != null && intervals[id].size > 0)
+        unhandled.add(intervals[id]);
+    unhandled.sort((a, b) -> Integer.compare(a.start(), b.start()));
+    active.clear();
+    inactive.clear();
+
+    for (Interval cur : unhandled) {
+      int pos = cur.start();
+      for (int i = 0; i < active.size(); ++i) {
+        Interval it = active.get(i);
+        if (it.end() <= pos || !it.covers(pos)) {
+          removeAt(active, i--);
+          if (it.end() > pos)
+            inactive.add(it);
+        }
+      }
+      for (int i = 0; i < inactive.size(); ++i) {
+        Interval it = inactive.get(i);
+        if (it.end() <= pos || it.covers(pos)) {
+          removeAt(inactive, i--);
+          if (it.end() > pos)
+            active.add(it);
+        }
+      }
+
+      // how long each register stays free for cur
+      for (int r : allocatable) {
+        freeUntil[r] = INF;
+        if (fixed[r] != null) {
+          fixed[r].advance(pos);
+          freeUntil[r] = cur.nextIntersection(fixed[r]);
+        }
+      }
+      int end = cur.end();
+      for (int r : allocatable)
+        fixedFree[r] = freeUntil[r] >= end;
+      for (var it : active)
+        freeUntil[it.reg] = 0;
+      for (var it : inactive)
+        if (freeUntil[it.reg] > 0)
+          freeUntil[it.reg] = Math.min(freeUntil[it.reg], cur.nextIntersection(it));
+
+      int reg = -1;
+      int hint = cur.hintPhy;
+      if (hint == -1 && cur.hintVirt != -1 && !intervals[cur.hintVirt].spilled)
+        hint = intervals[cur.hintVirt].reg;
+      // a move partner that is not allocated yet: prefer a register it could take as well
+      Interval partner = cur.hintVirt != -1 && intervals[cur.hintVirt].reg == -1 ? intervals[cur.hintVirt] : null;
+      if (hint != -1 && hint >= 8 && freeUntil[hint] >= end)
+        reg = hint;
+      else {
+        for (int r : allocatable)
+          if (freeUntil[r] >= end && (partner == null || fixed[r] == null || partner.nextIntersection(fixed[r]) == INF)) {
+            reg = r;
+            break;
+          }
+        if (reg == -1)
+          for (int r : allocatable)
+            if (freeUntil[r] >= end) {
+              reg = r;
+              break;
+            }
+      }
+      if (reg != -1) {
+        cur.reg = reg;
+        active.add(cur);
+        continue;
+      }
+
+      // no register is free for the whole interval: spill cur or the intervals in the way
+      for (int r : allocatable)
+        evictCost[r] = fixedFree[r] ? 0 : Double.MAX_VALUE;
+      for (var it : active)
+        evictCost[it.reg] += it.density();
+      for (var it : inactive)
+        if (cur.nextIntersection(it) != INF)
+          evictCost[it.reg] += it.density();
+      for (int r : allocatable)
+        if (reg == -1 || evictCost[r] < evictCost[reg])
+          reg = r;
+      if (evictCost[reg] >= cur.density()) {
+        cur.spilled = true;
+        continue;
+      }
+      for (int i = 0; i < active.size(); ++i)
+        if (active.get(i).reg == reg) {
+          active.get(i).spilled = true;
+          removeAt(active, i--);
+        }
+      for (int i = 0; i < inactive.size(); ++i)
+        if (inactive.get(i).reg == reg && cur.nextIntersection(inactive.get(i)) != INF) {
+          inactive.get(i).spilled = true;
+          removeAt(inactive, i--);
+        }
+      cur.reg = reg;
+      active.add(cur);
+    }
+  }
+
+  static void removeAt(ArrayList<Interval> list, int i) {
+    list.set(i, list.get(list.size() - 1));
+    list.remove(list.size() - 1);
+  }
+
+  // ------------------------------ rewrite ------------------------------
+
+  ArrayList<ASMInst> newInsts;
+
+  void rewrite(ASMFunction func, LivenessAnalyzer liveness) {
+    for (int id = phyCnt; id < intervals.length; ++id)
+      if (intervals[id] != null && intervals[id].spilled) {
+        liveness.regOf[id].stackOffset = func.paramUsed + func.allocaUsed + func.spillUsed;
+        func.spillUsed += 4;
+      }
+    for (ASMBlock block : func.blocks) {
+      newInsts = new ArrayList<>();
+      for (ASMInst inst : block.insts) {
+        if (inst instanceof ASMLiInst && ((ASMLiInst) inst).pseudoImm instanceof StackImm)
+          ((StackImm) ((ASMLiInst) inst).pseudoImm).calc();
+        if (inst.rs1 instanceof VirtualReg reg)
+          inst.rs1 = reg.stackOffset != null ? loadSpilled(RegT1, reg) : phy(reg);
+        if (inst.rs2 instanceof VirtualReg reg)
+          inst.rs2 = reg.stackOffset != null ? loadSpilled(RegT0, reg) : phy(reg);
+        VirtualReg spilledDef = null;
+        if (inst.rd instanceof VirtualReg reg) {
+          if (reg.stackOffset != null) {
+            spilledDef = reg;
+            inst.rd = RegT0;
+          } else
+            inst.rd = phy(reg);
+        }
+        if (!(inst instanceof ASMMvInst) || inst.rd != inst.rs1)
+          newInsts.add(inst);
+        if (spilledDef != null)
+          storeSpilled(RegT0, spilledDef);
+      }
+      block.insts = newInsts;
+    }
+  }
+
+  PhysicsReg phy(VirtualReg reg) {
+    return (PhysicsReg) PhysicsReg.idReg.get(intervals[LivenessAnalyzer.idOf(reg)].reg);
+  }
+
+  PhysicsReg loadSpilled(PhysicsReg dest, VirtualReg reg) {
+    if (reg.stackOffset < 1 << 11)
+      newInsts.add(new ASMLoadInst(reg.size, dest, RegSp, new Imm(reg.stackOffset)));
+    else {
+      newInsts.add(new ASMLiInst(RegT2, new VirtualImm(reg.stackOffset)));
+      newInsts.add(new ASMBinaryInst("add", RegT2, RegT2, RegSp));
+      newInsts.add(new ASMLoadInst(reg.size, dest, RegT2));
+    }
+    return dest;
+  }
+
+  void storeSpilled(PhysicsReg src, VirtualReg reg) {
+    if (reg.stackOffset < 1 << 11)
+      newInsts.add(new ASMStoreInst(reg.size, RegSp, src, new Imm(reg.stackOffset)));
+    else {
+      newInsts.add(new ASMLiInst(RegT2, new VirtualImm(reg.stackOffset)));
+      newInsts.add(new ASMBinaryInst("add", RegT2, RegT2, RegSp));
+      newInsts.add(new ASMStoreInst(reg.size, RegT2, src));
+    }
+  }
+}
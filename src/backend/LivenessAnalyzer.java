@@ -3,60 +3,185 @@ package backend;
 import assembly.*;
 import assembly.inst.*;
 import assembly.operand.*;
-import java.util.HashSet;
-import java.util.LinkedList;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/*
+ * Liveness analysis over long[] bitsets
+ * registers are numbered densely: physical register -> PhysicsReg.id, virtual register -> VirtualReg.id + 32
+ * blocks are numbered by their position in func.blocks
+ * the live sets inside a block are computed on demand by walking it backward, see beginBlock / stepBack
+ */
 
 public class LivenessAnalyzer {
-  ASMFunction func;
+  public static final int phyCnt = 32;
 
-  LinkedList<ASMBlock> workList = new LinkedList<>();
-  HashSet<ASMBlock> inWorkList = new HashSet<>();
+  ASMFunction func;
+  public int blockCnt, regCnt, words;
+  public Reg[] regOf;
+  int[][] succ, pred;
+  public long[][] liveIn, liveOut, use, def;
 
   public LivenessAnalyzer(ASMFunction func) {
     this.func = func;
-    // init
-    for (ASMBlock block : func.blocks) {
-      block.liveIn.clear();
-      block.liveOut.clear();
+    blockCnt = func.blocks.size();
+    // number the registers
+    regCnt = phyCnt;
+    for (ASMBlock block : func.blocks)
+      for (ASMInst inst : block.insts) {
+        for (int i = 0; i < inst.defNum(); ++i)
+          regCnt = Math.max(regCnt, idOf(inst.def(i)) + 1);
+        for (int i = 0; i < inst.useNum(); ++i)
+          regCnt = Math.max(regCnt, idOf(inst.use(i)) + 1);
+      }
+    words = (regCnt + 63) >>> 6;
+    regOf = new Reg[regCnt];
+    for (var reg : PhysicsReg.regMap.values())
+      regOf[reg.id] = reg;
+
+    IdentityHashMap<ASMBlock, Integer> index = new IdentityHashMap<>();
+    for (int b = 0; b < blockCnt; ++b)
+      index.put(func.blocks.get(b), b);
+    succ = new int[blockCnt][];
+    pred = new int[blockCnt][];
+    for (int b = 0; b < blockCnt; ++b) {
+      ASMBlock block = func.blocks.get(b);
+      succ[b] = block.succ.stream().mapToInt(index::get).toArray();
+      pred[b] = block.pred.stream().mapToInt(index::get).toArray();
     }
+
     // compute the use and def of each block
     // chapter 17.4.2
-    for (ASMBlock block : func.blocks) {
-      block.use.clear();
-      block.def.clear();
-      for (ASMInst inst : block.insts) {
-        for (var reg : inst.getUse())
-          if (!block.def.contains(reg))
-            block.use.add(reg);
-        block.def.addAll(inst.getDef());
+    liveIn = new long[blockCnt][words];
+    liveOut = new long[blockCnt][words];
+    use = new long[blockCnt][words];
+    def = new long[blockCnt][words];
+    for (int b = 0; b < blockCnt; ++b) {
+      long[] blockUse = use[b], blockDef = def[b];
+      for (ASMInst inst : func.blocks.get(b).insts) {
+        for (int i = 0; i < inst.useNum(); ++i) {
+          int u = id(inst.use(i));
+          if (!contains(blockDef, u))
+            add(blockUse, u);
+        }
+        for (int i = 0; i < inst.defNum(); ++i)
+          add(blockDef, id(inst.def(i)));
       }
     }
   }
 
-  // chapter 17.4.5
+  public static int idOf(Reg reg) {
+    return reg instanceof PhysicsReg phy ? phy.id : ((VirtualReg) reg).id + phyCnt;
+  }
+
+  int id(Reg reg) {
+    int u = idOf(reg);
+    regOf[u] = reg;
+    return u;
+  }
+
+  public static boolean contains(long[] set, int u) {
+    return (set[u >>> 6] & 1L << u) != 0;
+  }
+
+  public static void add(long[] set, int u) {
+    set[u >>> 6] |= 1L << u;
+  }
+
+  public static void remove(long[] set, int u) {
+    set[u >>> 6] &= ~(1L << u);
+  }
+
+  // the members of set in increasing order, written to buf, returns the count
+  public static int members(long[] set, int[] buf) {
+    int n = 0;
+    for (int w = 0; w < set.length; ++w)
+      for (long word = set[w]; word != 0; word &= word - 1)
+        buf[n++] = w << 6 | Long.numberOfTrailingZeros(word);
+    return n;
+  }
+
+  // chapter 17.4.5, the blocks are visited in postorder first so that successors come before predecessors
   public void work() {
-    workList.clear();
-    inWorkList.clear();
-    workList.add(func.exitBlock);
-    inWorkList.add(func.exitBlock);
-    while (!workList.isEmpty()) {
-      ASMBlock block = workList.removeFirst();
-      inWorkList.remove(block);
-      HashSet<Reg> newLiveOut = new HashSet<>();
-      for (var succ : block.succ)
-        newLiveOut.addAll(succ.liveIn);
-      HashSet<Reg> newLiveIn = new HashSet<>(block.use);
-      newLiveIn.addAll(newLiveOut);
-      newLiveIn.removeAll(block.def);
-      if (!newLiveIn.equals(block.liveIn) || !newLiveOut.equals(block.liveOut)) {
-        block.liveIn = newLiveIn;
-        block.liveOut = newLiveOut;
-        for (var pred : block.pred)
-          if (!inWorkList.contains(pred)) {
-            workList.add(pred);
-            inWorkList.add(pred);
+    int[] queue = new int[blockCnt];
+    boolean[] inWorkList = new boolean[blockCnt];
+    int head = 0, size = 0;
+    for (int b : postOrder()) {
+      queue[size++] = b;
+      inWorkList[b] = true;
+    }
+    long[] newIn = new long[words];
+    while (size > 0) {
+      int b = queue[head];
+      head = head + 1 == blockCnt ? 0 : head + 1;
+      --size;
+      inWorkList[b] = false;
+      long[] out = liveOut[b], in = liveIn[b], blockUse = use[b], blockDef = def[b];
+      Arrays.fill(out, 0);
+      for (int s : succ[b]) {
+        long[] succIn = liveIn[s];
+        for (int w = 0; w < words; ++w)
+          out[w] |= succIn[w];
+      }
+      boolean changed = false;
+      for (int w = 0; w < words; ++w) {
+        newIn[w] = blockUse[w] | out[w] & ~blockDef[w];
+        changed |= newIn[w] != in[w];
+      }
+      if (!changed)
+        continue;
+      System.arraycopy(newIn, 0, in, 0, words);
+      for (int p : pred[b])
+        if (!inWorkList[p]) {
+          inWorkList[p] = true;
+          queue[(head + size++) % blockCnt] = p;
+        }
+    }
+  }
+
+  int[] postOrder() {
+    int[] order = new int[blockCnt], stack = new int[blockCnt], next = new int[blockCnt];
+    boolean[] visited = new boolean[blockCnt];
+    int n = 0;
+    for (int root = 0; root < blockCnt; ++root) {
+      // the entry block comes first, then the blocks unreachable from it
+      if (visited[root])
+        continue;
+      int top = 0;
+      stack[top++] = root;
+      visited[root] = true;
+      while (top > 0) {
+        int b = stack[top - 1];
+        if (next[b] < succ[b].length) {
+          int s = succ[b][next[b]++];
+          if (!visited[s]) {
+            visited[s] = true;
+            stack[top++] = s;
           }
+        } else {
+          order[n++] = b;
+          --top;
+        }
       }
     }
+    return order;
+  }
+
+  // live registers after the current instruction while walking a block backward
+  public long[] live;
+
+  public void beginBlock(int b) {
+    if (live == null)
+      live = new long[words];
+    System.arraycopy(liveOut[b], 0, live, 0, words);
+  }
+
+  // move from after inst to before it
+  public void stepBack(ASMInst inst) {
+    for (int i = 0; i < inst.defNum(); ++i)
+      remove(live, idOf(inst.def(i)));
+    for (int i = 0; i < inst.useNum(); ++i)
+      add(live, idOf(inst.use(i)));
   }
 }
@@ -30,7 +30,7 @@ public class MergeBlock {
       if (block.pred.size() == 1 && block.pred.get(0) == lastBlock
           && lastBlock.insts.get(lastBlock.insts.size() - 1) instanceof ASMJumpInst jumpInst
           && jumpInst.toBlock == block) {
-        lastBlock.insts.removeLast(); // remove jump
+        lastBlock.insts.remove(lastBlock.insts.size() - 1); // remove jump
         lastBlock.insts.addAll(block.insts);
         lastBlock.succ.remove(block);
         lastBlock.succ.addAll(block.succ);
@@ -4,6 +4,7 @@ import assembly.*;
 import assembly.inst.*;
 import assembly.operand.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -78,16 +79,18 @@ public class PremAllocator {
       workOnFunc(func);
   }
 
-  LinkedList<ASMInst> newInsts;
+  ArrayList<ASMInst> newInsts;
   ASMFunction curFunc;
 
-  void workOnFunc(ASMFunction func) {
+  public void workOnFunc(ASMFunction func) {
     curFunc = func;
     spillTemp.clear();
+    VirtualReg.cnt = func.virtualRegCnt; // keep the ids dense for LivenessAnalyzer
     while (true) {
-      new LivenessAnalyzer(func).work();
+      LivenessAnalyzer liveness = new LivenessAnalyzer(func);
+      liveness.work();
       initAll(func);
-      build(func);
+      build(func, liveness);
       makeWorkList();
       // int cnt = 0;
       do {
@@ -112,9 +115,10 @@ public class PremAllocator {
         break;
       rewriteProgram(func);
     }
+    func.virtualRegCnt = VirtualReg.cnt;
 
     for (var block : func.blocks) {
-      newInsts = new LinkedList<>();
+      newInsts = new ArrayList<>();
       for (ASMInst inst : block.insts) {
         if (inst instanceof ASMLiInst && ((ASMLiInst) inst).pseudoImm instanceof StackImm)
           ((StackImm) ((ASMLiInst) inst).pseudoImm).calc();
@@ -181,8 +185,10 @@ public class PremAllocator {
     }
     for (var block : func.blocks)
       for (var inst : block.insts) {
-        initial.addAll(inst.getDef());
-        initial.addAll(inst.getUse());
+        for (int i = 0; i < inst.defNum(); i++)
+          initial.add(inst.def(i));
+        for (int i = 0; i < inst.useNum(); i++)
+          initial.add(inst.use(i));
       }
     initial.removeAll(preColored);
     for (var reg : initial) {
@@ -198,36 +204,41 @@ public class PremAllocator {
     for (var block : func.blocks) {
       double weight = Math.pow(10, block.loopDepth);
       for (var inst : block.insts) {
-        for (var reg : inst.getDef())
-          reg.spillWeight += weight;
-        for (var reg : inst.getUse())
-          reg.spillWeight += weight;
+        for (int i = 0; i < inst.defNum(); i++)
+          inst.def(i).spillWeight += weight;
+        for (int i = 0; i < inst.useNum(); i++)
+          inst.use(i).spillWeight += weight;
       }
     }
   }
 
-  void build(ASMFunction func) {
+  void build(ASMFunction func, LivenessAnalyzer liveness) {
     // build interference graph
-    for (var block : func.blocks) {
-      LinkedHashSet<Reg> live = new LinkedHashSet<>(block.liveOut);
-      for (int i = block.insts.size() - 1; i >= 0; i--) {
-        ASMInst inst = block.insts.get(i);
+    int[] live = new int[liveness.regCnt];
+    for (int b = 0; b < func.blocks.size(); b++) {
+      liveness.beginBlock(b);
+      var insts = func.blocks.get(b).insts;
+      for (int idx = insts.size() - 1; idx >= 0; idx--) {
+        ASMInst inst = insts.get(idx);
+        Reg mvUse = null;
         if (inst instanceof ASMMvInst) {
-          live.removeAll(inst.getUse());
-          for (var reg : inst.getDef())
-            moveList.get(reg).add((ASMMvInst) inst);
-          for (var reg : inst.getUse())
-            moveList.get(reg).add((ASMMvInst) inst);
+          mvUse = inst.rs1;
+          moveList.get(inst.rd).add((ASMMvInst) inst);
+          moveList.get(inst.rs1).add((ASMMvInst) inst);
           // all add to workListMoves initially
           workListMoves.add((ASMMvInst) inst);
         }
-        live.addAll(inst.getDef());
-        // debug
-        for (Reg def : inst.getDef())
-          for (var l : live)
-            addEdge(def, l);
-        live.removeAll(inst.getDef());
-        live.addAll(inst.getUse());
+        // live after inst, without the source of a move
+        int liveCnt = LivenessAnalyzer.members(liveness.live, live);
+        for (int i = 0; i < inst.defNum(); i++) {
+          Reg def = inst.def(i);
+          for (int k = 0; k < liveCnt; k++)
+            if (liveness.regOf[live[k]] != mvUse)
+              addEdge(def, liveness.regOf[live[k]]);
+          for (int j = 0; j < inst.defNum(); j++)
+            addEdge(def, inst.def(j));
+        }
+        liveness.stepBack(inst);
       }
     }
   }
@@ -445,7 +456,7 @@ public class PremAllocator {
 
     // create a new VirtualReg for each def and use in spilledNodes
     for (var block : func.blocks) {
-      newInsts = new LinkedList<>();
+      newInsts = new ArrayList<>();
       for (ASMInst inst : block.insts) {
         VirtualReg same = null;
         if (inst.rs1 != null && inst.rs1.stackOffset != null) {
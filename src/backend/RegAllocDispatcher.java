@@ -0,0 +1,64 @@
+package backend;
+
+import assembly.*;
+import utils.*;
+
+/*
+ * choose a register allocator for each function
+ * graph coloring is used for functions up to linearScanThreshold instructions,
+ * larger ones go to linear scan, and when the compile budget is running out
+ * the remaining functions fall back to spilling everything
+ */
+
+public class RegAllocDispatcher {
+  ASMModule module;
+  CompileBudget budget;
+
+  // the time of graph coloring grows about quadratically with the size of a function
+  // nanoseconds per (instruction count)^2, adjusted by the functions already allocated
+  double coloringRate = 2.0;
+  // linear scan grows about linearly, nanoseconds per instruction
+  double linearScanRate = 2000.0;
+  static final int minSampleSize = 256;
+  // FastPremAllocator is the default, the original allocator is kept as a reference
+  public static boolean usePremAllocator = false;
+  public static int linearScanThreshold = 10000; // instructions
+
+  public RegAllocDispatcher(ASMModule module, CompileBudget budget) {
+    this.module = module;
+    this.budget = budget;
+  }
+
+  public void work() {
+    FastPremAllocator coloring = new FastPremAllocator(module);
+    PremAllocator reference = new PremAllocator(module);
+    LinearScanAllocator linearScan = new LinearScanAllocator(module);
+    RegAllocator spillAll = new RegAllocator(module);
+    for (var func : module.functions) {
+      int instCnt = 0;
+      for (var block : func.blocks)
+        instCnt += block.insts.size();
+      long start = System.nanoTime();
+      if (instCnt <= linearScanThreshold && budget.canAfford(coloringRate * instCnt * instCnt)) {
+        if (usePremAllocator)
+          reference.workOnFunc(func);
+        else
+          coloring.workOnFunc(func);
+        long time = System.nanoTime() - start;
+        if (instCnt >= minSampleSize)
+          coloringRate = Math.max(coloringRate, (double) time / instCnt / instCnt);
+      } else if (budget.canAfford(linearScanRate * instCnt)) {
+        linearScan.workOnFunc(func);
+        long time = System.nanoTime() - start;
+        if (instCnt >= minSampleSize)
+          linearScanRate = Math.max(linearScanRate, (double) time / instCnt);
+        if (instCnt <= linearScanThreshold)
+          budget.downgrade(func.name, "linear scan allocation, " + instCnt + " insts");
+      } else {
+        spillAll.workOnFunc(func);
+        budget.downgrade(func.name, "spill-everywhere allocation, " + instCnt + " insts");
+      }
+      budget.recordFunc(func.name, System.nanoTime() - start);
+    }
+  }
+}
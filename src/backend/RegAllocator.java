@@ -1,6 +1,6 @@
 package backend;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 import assembly.*;
 import assembly.operand.*;
@@ -13,24 +13,27 @@ public class RegAllocator {
   PhysicsReg RegT1 = PhysicsReg.regMap.get("t1");
   PhysicsReg RegT2 = PhysicsReg.regMap.get("t2");
   PhysicsReg RegSp = PhysicsReg.regMap.get("sp");
-  LinkedList<ASMInst> workList;
+  ArrayList<ASMInst> workList;
 
   public RegAllocator(ASMModule module) {
     this.module = module;
   }
 
   public void work() {
-    for (ASMFunction function : module.functions) {
-      function.spillUsed = function.virtualRegCnt << 2;
-      virtualRegBegin = function.paramUsed + function.allocaUsed;
-      totalStack = virtualRegBegin + function.spillUsed;
-      for (ASMBlock block : function.blocks)
-        visitBlock(block);
-    }
+    for (ASMFunction function : module.functions)
+      workOnFunc(function);
+  }
+
+  public void workOnFunc(ASMFunction function) {
+    function.spillUsed = function.virtualRegCnt << 2;
+    virtualRegBegin = function.paramUsed + function.allocaUsed;
+    totalStack = virtualRegBegin + function.spillUsed;
+    for (ASMBlock block : function.blocks)
+      visitBlock(block);
   }
 
   public void visitBlock(ASMBlock block) {
-    workList = new LinkedList<ASMInst>();
+    workList = new ArrayList<ASMInst>();
     for (ASMInst inst : block.insts) {
       if (inst instanceof ASMLiInst && ((ASMLiInst) inst).pseudoImm instanceof StackImm)
         ((StackImm) ((ASMLiInst) inst).pseudoImm).calc();
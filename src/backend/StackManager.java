@@ -1,5 +1,7 @@
 package backend;
 
+import java.util.ArrayList;
+
 import assembly.*;
 import assembly.inst.*;
 import assembly.operand.*;
@@ -16,23 +18,35 @@ public class StackManager {
       int totalStack = curFunc.paramUsed + curFunc.allocaUsed + curFunc.spillUsed;
      
       if (totalStack < 1 << 11)
-        curFunc.entryBlock.insts.addFirst(new ASMUnaryInst("addi", PhysicsReg.get("sp"), PhysicsReg.get("sp"),
+        curFunc.entryBlock.insts.add(0, new ASMUnaryInst("addi", PhysicsReg.get("sp"), PhysicsReg.get("sp"),
             new Imm(-totalStack)));
       else {
-        curFunc.entryBlock.insts.addFirst(new ASMBinaryInst("add", PhysicsReg.regMap.get("sp"), PhysicsReg.get("sp"),
+        curFunc.entryBlock.insts.add(0, new ASMBinaryInst("add", PhysicsReg.regMap.get("sp"), PhysicsReg.get("sp"),
             PhysicsReg.get("t0")));
-        curFunc.entryBlock.insts.addFirst(new ASMLiInst(PhysicsReg.get("t0"), new VirtualImm(-totalStack)));
+        curFunc.entryBlock.insts.add(0, new ASMLiInst(PhysicsReg.get("t0"), new VirtualImm(-totalStack)));
       }
 
-      if (totalStack < 1 << 11)
-        curFunc.exitBlock.insts.add(new ASMUnaryInst("addi", PhysicsReg.get("sp"), PhysicsReg.get("sp"),
-            new Imm(totalStack)));
-      else {
-        curFunc.exitBlock.insts.add(new ASMLiInst(PhysicsReg.get("t0"), new VirtualImm(totalStack)));
-        curFunc.exitBlock.insts.add(new ASMBinaryInst("add", PhysicsReg.get("sp"), PhysicsReg.get("sp"),
-            PhysicsReg.get("t0")));
-      }
+      // the frame is also torn down before every tail call
+      for (var block : curFunc.blocks)
+        for (int i = 0; i < block.insts.size(); ++i)
+          if (block.insts.get(i).op == ASMOpcode.TAIL) {
+            var restore = restoreSp(totalStack);
+            block.insts.addAll(i, restore);
+            i += restore.size();
+          }
+      curFunc.exitBlock.insts.addAll(restoreSp(totalStack));
       curFunc.exitBlock.insts.add(new ASMRetInst());
     }
   }
+
+  ArrayList<ASMInst> restoreSp(int totalStack) {
+    ArrayList<ASMInst> ret = new ArrayList<>();
+    if (totalStack < 1 << 11)
+      ret.add(new ASMUnaryInst("addi", PhysicsReg.get("sp"), PhysicsReg.get("sp"), new Imm(totalStack)));
+    else {
+      ret.add(new ASMLiInst(PhysicsReg.get("t0"), new VirtualImm(totalStack)));
+      ret.add(new ASMBinaryInst("add", PhysicsReg.get("sp"), PhysicsReg.get("sp"), PhysicsReg.get("t0")));
+    }
+    return ret;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Aggressive dead code elimination
+ * everything is dead until proven live: returns, stores and calls with side effects are live, and so
+ * are the operands of a live instruction and the branches it is control dependent on
+ * a dead branch jumps to its immediate post dominator instead, so unused loops and diamonds disappear
+ * reference: Cooper & Torczon, Engineering a Compiler, chapter 10.2 (Dead)
+ */
+
+public class AggressiveDCE {
+  IRProgram program;
+  IRFunction curFunc;
+
+  HashMap<IRRegister, IRInst> defs = new HashMap<>();
+  HashMap<IRInst, IRBasicBlock> blockOf = new HashMap<>();
+  HashSet<IRInst> live = new HashSet<>();
+  HashSet<IRBasicBlock> liveBlocks = new HashSet<>();
+  LinkedList<IRInst> workList = new LinkedList<>();
+  // allocas whose address is only written to
+  HashSet<IRRegister> writeOnly = new HashSet<>();
+
+  public AggressiveDCE(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    defs.clear();
+    blockOf.clear();
+    live.clear();
+    liveBlocks.clear();
+    workList.clear();
+    var postDom = new PostDomTreeBuilder(program);
+    postDom.workOnFunc(func);
+    collectWriteOnly();
+
+    for (var block : func.blocks) {
+      for (var inst : block.insts) {
+        blockOf.put(inst, block);
+        if (inst.getDef() != null)
+          defs.put(inst.getDef(), inst);
+      }
+      blockOf.put(block.terminalInst, block);
+    }
+    for (var block : func.blocks) {
+      for (var inst : block.insts)
+        if (isRoot(inst))
+          markLive(inst);
+      // a branch that is only post dominated by the exit cannot be replaced
+      if (block.terminalInst instanceof IRRetInst
+          || block.terminalInst instanceof IRBranchInst && block.postIdom == null)
+        markLive(block.terminalInst);
+    }
+    // a loop that never exits is kept as it is
+    for (var block : postDom.noExit)
+      markLive(block.terminalInst);
+
+    while (!workList.isEmpty()) {
+      IRInst inst = workList.removeFirst();
+      for (var use : inst.getUse())
+        if (use instanceof IRRegister reg && defs.containsKey(reg))
+          markLive(defs.get(reg));
+      markBlockLive(blockOf.get(inst));
+      if (inst instanceof IRPhiInst phi)
+        for (var from : phi.blocks) {
+          markLive(from.terminalInst);
+          markBlockLive(from);
+        }
+    }
+
+    boolean changed = false;
+    for (var block : func.blocks) {
+      changed |= block.insts.removeIf(inst -> !live.contains(inst));
+      if (block.terminalInst instanceof IRBranchInst && !live.contains(block.terminalInst)) {
+        block.terminalInst = new IRJumpInst(block, block.postIdom);
+        changed = true;
+      }
+    }
+    if (changed)
+      new CFGBuilder(program).workOnFunc(func);
+  }
+
+  void markLive(IRInst inst) {
+    if (live.add(inst))
+      workList.add(inst);
+  }
+
+  // the branches deciding whether the block is executed are live
+  void markBlockLive(IRBasicBlock block) {
+    if (!liveBlocks.add(block))
+      return;
+    for (var dep : block.postDomFrontier)
+      markLive(dep.terminalInst);
+  }
+
+  boolean isRoot(IRInst inst) {
+    if (inst instanceof IRStoreInst store)
+      return store.param_idx != -1 || !writeOnly.contains(store.destAddr);
+    if (inst instanceof IRCallInst call)
+      return !IREffect.removable(program.effectsOf(call.funcName));
+    return false;
+  }
+
+  void collectWriteOnly() {
+    writeOnly.clear();
+    for (var inst : curFunc.entryBlock.insts)
+      if (inst instanceof IRAllocaInst alloca && alloca.param_idx == -1)
+        writeOnly.add(alloca.allocaReg);
+    for (var block : curFunc.blocks) {
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (writeOnly.contains(use) && !(inst instanceof IRStoreInst store && store.destAddr == use
+              && store.val != use))
+            writeOnly.remove(use);
+      for (var use : block.terminalInst.getUse())
+        writeOnly.remove(use);
+    }
+  }
+}
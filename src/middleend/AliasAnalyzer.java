@@ -0,0 +1,150 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+import utils.*;
+
+import java.util.HashMap;
+
+/*
+ * Alias analysis on the addresses of one function
+ * an address is split into its root pointer and the offsets added by getelementptr, two addresses
+ * with the same root and the same variable indices are compared by their constant offsets
+ * distinct roots are disjoint if both are identified objects: a global, an alloca or the result of
+ * a malloc, a parameter also differs from a malloc of the function
+ * no pointer to a global or to an alloca is ever taken, so only their own accesses reach them
+ * Mx has no pointer casts, so accesses with different type tags (a field of a class, an element of an
+ * array type, the size of an array, set by IRBuilder) never alias
+ */
+
+public class AliasAnalyzer implements BuiltinElements {
+  public static final int NO_ALIAS = 0, MAY_ALIAS = 1, MUST_ALIAS = 2;
+
+  IRProgram program;
+  IRFunction curFunc;
+
+  HashMap<IRRegister, IRInst> defs = new HashMap<>();
+  HashMap<IREntity, IRMemoryLocation> locations = new HashMap<>();
+
+  public AliasAnalyzer(IRProgram program, IRFunction func) {
+    this.program = program;
+    this.curFunc = func;
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst.getDef() != null)
+          defs.put(inst.getDef(), inst);
+  }
+
+  public static int sizeOf(IRType type) {
+    return type == irBoolType ? 1 : 4;
+  }
+
+  public IRMemoryLocation locationOf(IRInst inst) {
+    IRMemoryLocation ret = null;
+    if (inst instanceof IRLoadInst load) {
+      ret = locationOf(load.srcAddr, sizeOf(load.type));
+      ret.typeTag = load.typeTag;
+    } else if (inst instanceof IRStoreInst store) {
+      ret = locationOf(store.destAddr, sizeOf(store.val.type));
+      ret.typeTag = store.typeTag;
+    }
+    return ret;
+  }
+
+  public IRMemoryLocation locationOf(IREntity addr, int size) {
+    IRMemoryLocation base = decompose(addr);
+    IRMemoryLocation ret = new IRMemoryLocation(base.root, size);
+    ret.offset = base.offset;
+    ret.indices = base.indices;
+    ret.scales = base.scales;
+    return ret;
+  }
+
+  // the sizes of the decomposed pointers are not used
+  IRMemoryLocation decompose(IREntity addr) {
+    if (locations.containsKey(addr))
+      return locations.get(addr);
+    IRMemoryLocation ret;
+    IRInst def = addr instanceof IRRegister reg ? defs.get(reg) : null;
+    if (def instanceof IRBitcastInst cast)
+      ret = decompose(cast.val);
+    else if (def instanceof IRGetElementPtrInst gep) {
+      IRMemoryLocation base = decompose(gep.ptr);
+      ret = new IRMemoryLocation(base.root, 0);
+      ret.offset = base.offset;
+      ret.indices.addAll(base.indices);
+      ret.scales.addAll(base.scales);
+      // the same element sizes as InstSelector
+      IREntity index = gep.pToType instanceof IRStructType ? gep.indexList.get(1) : gep.indexList.get(0);
+      int scale = gep.pToType == irBoolType ? 1 : 4;
+      if (index instanceof IRIntConst intConst)
+        ret.offset += intConst.val * scale;
+      else {
+        ret.indices.add(index);
+        ret.scales.add(scale);
+      }
+    } else
+      ret = new IRMemoryLocation(addr, 0);
+    locations.put(addr, ret);
+    return ret;
+  }
+
+  boolean isMalloc(IREntity root) {
+    return root instanceof IRRegister reg && defs.get(reg) instanceof IRCallInst call
+        && call.funcName.equals("malloc");
+  }
+
+  boolean isAlloca(IREntity root) {
+    return root instanceof IRRegister reg && defs.get(reg) instanceof IRAllocaInst;
+  }
+
+  boolean isIdentified(IREntity root) {
+    return root instanceof IRGlobalVar || isAlloca(root) || isMalloc(root);
+  }
+
+  public int alias(IRMemoryLocation a, IRMemoryLocation b) {
+    if (a.typeTag != null && b.typeTag != null && !a.typeTag.equals(b.typeTag))
+      return NO_ALIAS;
+    if (a.root != b.root) {
+      if (isIdentified(a.root) && isIdentified(b.root) || a.root instanceof IRGlobalVar
+          || b.root instanceof IRGlobalVar || isAlloca(a.root) || isAlloca(b.root))
+        return NO_ALIAS;
+      if (isMalloc(a.root) && curFunc.params.contains(b.root) || isMalloc(b.root) && curFunc.params.contains(a.root))
+        return NO_ALIAS;
+      return MAY_ALIAS;
+    }
+    if (!a.sameIndices(b))
+      return MAY_ALIAS;
+    if (a.offset == b.offset && a.size == b.size)
+      return MUST_ALIAS;
+    if (a.offset + a.size <= b.offset || b.offset + b.size <= a.offset)
+      return NO_ALIAS;
+    return MAY_ALIAS;
+  }
+
+  public boolean mustAlias(IRMemoryLocation a, IRMemoryLocation b) {
+    return alias(a, b) == MUST_ALIAS;
+  }
+
+  // whether the instruction may change the location
+  public boolean mayWrite(IRInst inst, IRMemoryLocation loc) {
+    if (inst instanceof IRStoreInst)
+      return alias(locationOf(inst), loc) != NO_ALIAS;
+    if (inst instanceof IRCallInst call)
+      return !isAlloca(loc.root) && (program.effectsOf(call.funcName)
+          & (loc.root instanceof IRGlobalVar ? IREffect.WRITE_GLOBAL : IREffect.WRITE_MEMORY)) != 0;
+    return false;
+  }
+
+  // whether the instruction may observe the location
+  public boolean mayRead(IRInst inst, IRMemoryLocation loc) {
+    if (inst instanceof IRLoadInst)
+      return alias(locationOf(inst), loc) != NO_ALIAS;
+    if (inst instanceof IRCallInst call)
+      return !isAlloca(loc.root) && (program.effectsOf(call.funcName)
+          & (loc.root instanceof IRGlobalVar ? IREffect.READ_GLOBAL : IREffect.READ_MEMORY)) != 0;
+    return false;
+  }
+}
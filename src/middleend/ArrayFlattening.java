@@ -0,0 +1,63 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+import utils.*;
+
+import java.util.HashMap;
+
+/*
+ * Flat addressing of the rectangular 2-d arrays
+ * newArray puts the rows of a 2-d array right after it in the same malloc with the same stride, so if no
+ * row of its type is ever assigned elsewhere (IRProgram.flatRowTags), a[i] of an array created in the
+ * function is computed from the first row and the stride (IRProgram.flatArrays) instead of loaded:
+ * a[i][j] is one load, and LSR turns the row address of a loop over i into an add
+ * the row pointers are still stored, a[i] as a value and a[i].size() are unchanged
+ * runs right after Mem2Reg, while the registers recorded by IRBuilder are still the ones in the code
+ */
+
+public class ArrayFlattening implements BuiltinElements {
+  IRProgram program;
+  HashMap<IRRegister, IRInst> defs = new HashMap<>();
+
+  public ArrayFlattening(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    if (!program.flatArrays.isEmpty())
+      program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    defs.clear();
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst.getDef() != null)
+          defs.put(inst.getDef(), inst);
+    for (var block : func.blocks)
+      for (var it = block.insts.listIterator(); it.hasNext();)
+        if (it.next() instanceof IRLoadInst load && program.flatRowTags.contains(load.typeTag)
+            && defs.get(load.srcAddr) instanceof IRGetElementPtrInst gep && gep.indexList.size() == 1
+            && program.flatArrays.containsKey(gep.ptr)) {
+          // load a[i] -> first row + i * stride + 4 (the size of the row)
+          IREntity[] layout = program.flatArrays.get(gep.ptr);
+          IREntity index = gep.indexList.get(0), bytes;
+          IRRegister row = load.destReg.type.equals(irStringType) ? load.destReg : new IRRegister("", irStringType);
+          it.remove();
+          if (index instanceof IRIntConst i && layout[1] instanceof IRIntConst stride)
+            bytes = new IRIntConst(i.val * stride.val + 4);
+          else {
+            IRRegister offset = new IRRegister("", irIntType), sum = new IRRegister("", irIntType);
+            it.add(new IRCalcInst(block, irIntType, offset, index, layout[1], "mul"));
+            it.add(new IRCalcInst(block, irIntType, sum, offset, irIntConst4, "add"));
+            bytes = sum;
+          }
+          it.add(new IRGetElementPtrInst(block, layout[0], row, bytes));
+          if (row != load.destReg)
+            it.add(new IRBitcastInst(block, row, load.destReg.type, load.destReg));
+        }
+  }
+}
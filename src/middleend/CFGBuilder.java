@@ -3,8 +3,11 @@ package middleend;
 import IR.*;
 import IR.inst.*;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 
+// can be run again after a pass changes the terminators, the old edges are dropped first
+// the terminators get the block they end, IRBuilder may create one in a block it later leaves
 public class CFGBuilder {
   IRProgram program;
 
@@ -17,6 +20,11 @@ public class CFGBuilder {
   }
 
   public void workOnFunc(IRFunction func) {
+    func.blocks.forEach(block -> {
+      block.preds.clear();
+      block.succs.clear();
+      block.terminalInst.parentBlock = block;
+    });
     func.blocks.forEach(block -> {
       if (block.terminalInst instanceof IRJumpInst) {
         IRJumpInst jumpInst = (IRJumpInst) block.terminalInst;
@@ -30,14 +38,35 @@ public class CFGBuilder {
         branchInst.elseBlock.preds.add(block);
       }
     });
-    
+
+    // remove the blocks unreachable from the entry
+    HashSet<IRBasicBlock> reachable = new HashSet<>();
+    LinkedList<IRBasicBlock> workList = new LinkedList<>();
+    reachable.add(func.entryBlock);
+    workList.add(func.entryBlock);
+    while (!workList.isEmpty())
+      for (var succ : workList.removeFirst().succs)
+        if (reachable.add(succ))
+          workList.add(succ);
+    if (reachable.size() == func.blocks.size())
+      return;
     LinkedList<IRBasicBlock> newBlocks = new LinkedList<>();
     for (var block : func.blocks)
-      if (!block.preds.isEmpty() || block == func.entryBlock)
+      if (reachable.contains(block))
         newBlocks.add(block);
       else
-        for (var succ : block.succs)
-          succ.preds.remove(block);
+        for (var succ : block.succs) {
+          succ.preds.removeIf(pred -> pred == block);
+          for (var inst : succ.insts) {
+            if (!(inst instanceof IRPhiInst phi))
+              break;
+            for (int i = phi.blocks.size() - 1; i >= 0; --i)
+              if (phi.blocks.get(i) == block) {
+                phi.blocks.remove(i);
+                phi.values.remove(i);
+              }
+          }
+        }
     func.blocks = newBlocks;
   }
 }
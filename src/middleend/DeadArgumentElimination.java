@@ -0,0 +1,168 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Dead argument and dead return value elimination, every function but main is internal
+ *  - a parameter is dead unless it is used other than as the same argument of a call to a function
+ *    whose parameter is dead, so a parameter only passed on by a recursion goes away
+ *  - a return value is dead unless a call uses it other than by returning it from a function whose
+ *    return value is dead
+ * liveness is propagated along these dependencies (optimistic, like SCCP), then the parameters are
+ * removed with the arguments of every call, and the dead returns become ret void
+ * the computations of the removed arguments and return values are left to AggressiveDCE
+ */
+
+public class DeadArgumentElimination implements BuiltinElements {
+  IRProgram program;
+
+  HashMap<String, IRFunction> funcMap = new HashMap<>();
+  // the parameters and return values that are live if the key is
+  HashMap<Object, ArrayList<Object>> deps = new HashMap<>();
+  HashSet<Object> live = new HashSet<>();
+  LinkedList<Object> workList = new LinkedList<>();
+  HashMap<IRRegister, ArrayList<IRInst>> users = new HashMap<>();
+
+  public DeadArgumentElimination(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    for (var func : program.funcList)
+      funcMap.put(func.name, func);
+    markLive(program.mainFunc);
+    for (var func : program.funcList)
+      collect(func);
+    while (!workList.isEmpty())
+      for (var dep : deps.getOrDefault(workList.removeFirst(), new ArrayList<>()))
+        markLive(dep);
+    for (var func : program.funcList)
+      if (func != program.mainFunc) {
+        removeParams(func);
+        if (!live.contains(func) && func.returnType != irVoidType)
+          removeReturn(func);
+      }
+  }
+
+  void markLive(Object value) {
+    if (live.add(value))
+      workList.add(value);
+  }
+
+  void addDep(Object from, Object to) {
+    deps.computeIfAbsent(from, k -> new ArrayList<>()).add(to);
+  }
+
+  void collect(IRFunction func) {
+    users.clear();
+    HashMap<Integer, IRRegister> stackSlot = new HashMap<>();
+    for (var block : func.blocks) {
+      for (var inst : block.insts) {
+        for (var use : inst.getUse())
+          if (use instanceof IRRegister reg)
+            users.computeIfAbsent(reg, k -> new ArrayList<>()).add(inst);
+        if (inst instanceof IRAllocaInst alloca && alloca.param_idx >= 8)
+          stackSlot.put(alloca.param_idx, alloca.allocaReg);
+      }
+      for (var use : block.terminalInst.getUse())
+        if (use instanceof IRRegister reg)
+          users.computeIfAbsent(reg, k -> new ArrayList<>()).add(block.terminalInst);
+    }
+
+    // the parameters after the 8th are read from their slots, which only the store of the parameter
+    // may touch
+    for (int i = 0; i < func.params.size(); ++i) {
+      IRRegister param = func.params.get(i);
+      if (func == program.mainFunc)
+        markLive(param);
+      else if (i >= 8) {
+        for (var user : users.getOrDefault(stackSlot.get(i), new ArrayList<>()))
+          if (!(user instanceof IRStoreInst store && store.param_idx == i))
+            markLive(param);
+        if (!stackSlot.containsKey(i))
+          markLive(param);
+      } else
+        for (var user : users.getOrDefault(param, new ArrayList<>()))
+          if (user instanceof IRCallInst call && funcMap.containsKey(call.funcName)) {
+            var callee = funcMap.get(call.funcName);
+            for (int j = 0; j < call.args.size(); ++j)
+              if (call.args.get(j) == param)
+                addDep(callee.params.get(j), param);
+          } else
+            markLive(param);
+    }
+
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRCallInst call && call.callReg != null && funcMap.containsKey(call.funcName)) {
+          var callee = funcMap.get(call.funcName);
+          for (var user : users.getOrDefault(call.callReg, new ArrayList<>()))
+            if (isReturned(user, call.callReg))
+              addDep(func, callee);
+            else
+              markLive(callee);
+        }
+  }
+
+  // returned right away, or through a phi that is only returned
+  boolean isReturned(IRInst user, IRRegister val) {
+    if (user instanceof IRRetInst)
+      return true;
+    if (!(user instanceof IRPhiInst phi) || phi.dest == val)
+      return false;
+    var phiUsers = users.getOrDefault(phi.dest, new ArrayList<>());
+    return phiUsers.size() == 1 && phiUsers.get(0) instanceof IRRetInst;
+  }
+
+  void removeParams(IRFunction func) {
+    for (int i = func.params.size() - 1; i >= 0; --i) {
+      if (live.contains(func.params.get(i)))
+        continue;
+      final int index = i;
+      func.params.remove(i);
+      // the slots of the later parameters move down, the 9th is now passed in a7 and stored to its slot
+      for (var iter = func.entryBlock.insts.iterator(); iter.hasNext();) {
+        IRInst inst = iter.next();
+        if (inst instanceof IRAllocaInst alloca && alloca.param_idx != -1) {
+          if (alloca.param_idx == index)
+            iter.remove();
+          else if (alloca.param_idx > index)
+            --alloca.param_idx;
+        } else if (inst instanceof IRStoreInst store && store.param_idx != -1) {
+          if (store.param_idx == index)
+            iter.remove();
+          else if (store.param_idx > index)
+            --store.param_idx;
+        }
+      }
+      for (var caller : program.funcList)
+        for (var block : caller.blocks)
+          for (var inst : block.insts)
+            if (inst instanceof IRCallInst call && call.funcName.equals(func.name))
+              call.args.remove(index);
+    }
+  }
+
+  // the callers whose value is used by a return are dead as well, their rets are replaced in turn
+  void removeReturn(IRFunction func) {
+    func.returnType = irVoidType;
+    for (var block : func.blocks)
+      if (block.terminalInst instanceof IRRetInst ret)
+        ret.val = irVoidConst;
+    for (var caller : program.funcList)
+      for (var block : caller.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst call && call.funcName.equals(func.name)) {
+            call.callReg = null;
+            call.returnType = irVoidType;
+          }
+  }
+}
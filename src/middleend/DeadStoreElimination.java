@@ -0,0 +1,92 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Dead store elimination on memory SSA
+ * a store is removed if it writes the value the location already holds, or if a store to the same
+ * location post dominates it and nothing that may read the location is reached in between
+ * the memory SSA is rebuilt between the two, so a pair of equal stores does not remove both
+ */
+
+public class DeadStoreElimination {
+  IRProgram program;
+  IRFunction curFunc;
+  MemorySSABuilder memorySSA;
+
+  public DeadStoreElimination(IRProgram program) {
+    this.program = program;
+    memorySSA = new MemorySSABuilder(program);
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    memorySSA.workOnFunc(func);
+    boolean changed = false;
+    for (var block : func.blocks)
+      changed |= block.insts.removeIf(inst -> inst instanceof IRStoreInst store && isNoop(store));
+    if (changed)
+      memorySSA.workOnFunc(func);
+    new PostDomTreeBuilder(program).workOnFunc(func);
+    for (var block : func.blocks)
+      block.insts.removeIf(inst -> inst instanceof IRStoreInst store && isOverwritten(store));
+  }
+
+  // store (load p), p or store v, p after store v, p
+  boolean isNoop(IRStoreInst store) {
+    if (store.param_idx != -1)
+      return false;
+    IRMemoryLocation loc = memorySSA.alias.locationOf(store);
+    IRMemoryAccess clobber = memorySSA.clobber(memorySSA.accessOf.get(store).defining, loc);
+    if (clobber.kind == IRMemoryAccess.Kind.DEF && clobber.inst instanceof IRStoreInst prev)
+      return prev.val == store.val && memorySSA.alias.mustAlias(memorySSA.alias.locationOf(prev), loc);
+    if (store.val instanceof IRRegister reg && memorySSA.alias.defs.get(reg) instanceof IRLoadInst load)
+      return memorySSA.alias.mustAlias(memorySSA.alias.locationOf(load), loc)
+          && memorySSA.clobber(memorySSA.accessOf.get(load).defining, loc) == clobber;
+    return false;
+  }
+
+  boolean isOverwritten(IRStoreInst store) {
+    if (store.param_idx != -1)
+      return false;
+    IRMemoryLocation loc = memorySSA.alias.locationOf(store);
+    HashSet<IRMemoryAccess> visited = new HashSet<>();
+    LinkedList<IRMemoryAccess> workList = new LinkedList<>();
+    workList.add(memorySSA.accessOf.get(store));
+    boolean killed = false;
+    while (!workList.isEmpty()) {
+      IRMemoryAccess cur = workList.removeFirst();
+      for (var user : cur.users) {
+        if (user.kind != IRMemoryAccess.Kind.PHI && memorySSA.alias.mayRead(user.inst, loc))
+          return false;
+        if (user.inst instanceof IRStoreInst next && next.param_idx == -1
+            && memorySSA.alias.mustAlias(memorySSA.alias.locationOf(next), loc)) {
+          killed |= postDominates(next, store);
+          continue;
+        }
+        if (user.kind != IRMemoryAccess.Kind.USE && visited.add(user))
+          workList.add(user);
+      }
+    }
+    return killed;
+  }
+
+  boolean postDominates(IRInst next, IRInst inst) {
+    IRBasicBlock block = inst.parentBlock;
+    if (next.parentBlock == block)
+      return block.insts.indexOf(next) > block.insts.indexOf(inst);
+    for (block = block.postIdom; block != null; block = block.postIdom)
+      if (block == next.parentBlock)
+        return true;
+    return false;
+  }
+}
@@ -37,7 +37,12 @@ public class DomTreeBuilder {
     blockSeq.addFirst(block);
   }
 
-  void workOnFunc(IRFunction func) {
+  public void workOnFunc(IRFunction func) {
+    for (var block : func.blocks) {
+      block.idom = null;
+      block.domChildren.clear();
+      block.domFrontier.clear();
+    }
     blockSeq.clear();
     order.clear();
     visited.clear();
@@ -50,9 +55,11 @@ public class DomTreeBuilder {
       for (IRBasicBlock block : blockSeq) {
         IRBasicBlock newIdom = null;
         for (IRBasicBlock pred : block.preds)
-          if (newIdom == null)
+          if (pred.idom == null)
+            continue;
+          else if (newIdom == null)
             newIdom = pred;
-          else if (pred.idom != null)
+          else
             newIdom = intersect(pred, newIdom);
         if (newIdom != block.idom) {
           block.idom = newIdom;
@@ -0,0 +1,89 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Intraprocedural escape analysis of the objects and arrays allocated by malloc
+ * the pointers derived from a malloc by bitcast and getelementptr are followed to their users,
+ * an object does not escape if they are only used as the address of loads and stores: stored
+ * somewhere, passed to a call, returned, merged by a phi or compared, it escapes
+ * the byte offset of every access into an object is recorded, null if an index is not constant
+ */
+
+public class EscapeAnalyzer implements BuiltinElements {
+  IRProgram program;
+  IRFunction curFunc;
+
+  public ArrayList<IRCallInst> mallocs = new ArrayList<>();
+  public HashSet<IRCallInst> escaping = new HashSet<>();
+  // the loads and stores through a malloc and their offsets from it
+  public HashMap<IRCallInst, ArrayList<IRInst>> accesses = new HashMap<>();
+  public HashMap<IRInst, Integer> offsetOf = new HashMap<>();
+
+  HashMap<IREntity, ArrayList<IRInst>> users = new HashMap<>();
+
+  public EscapeAnalyzer(IRProgram program) {
+    this.program = program;
+  }
+
+  public void workOnFunc(IRFunction func) {
+    curFunc = func;
+    mallocs.clear();
+    escaping.clear();
+    accesses.clear();
+    offsetOf.clear();
+    users.clear();
+    for (var block : func.blocks) {
+      for (var inst : block.insts) {
+        for (var use : inst.getUse())
+          users.computeIfAbsent(use, k -> new ArrayList<>()).add(inst);
+        if (inst instanceof IRCallInst call && call.funcName.equals("malloc") && call.callReg != null)
+          mallocs.add(call);
+      }
+      for (var use : block.terminalInst.getUse())
+        users.computeIfAbsent(use, k -> new ArrayList<>()).add(block.terminalInst);
+    }
+    for (var call : mallocs) {
+      accesses.put(call, new ArrayList<>());
+      if (!follow(call, call.callReg, 0))
+        escaping.add(call);
+    }
+  }
+
+  // false if the object escapes through ptr
+  boolean follow(IRCallInst call, IRRegister ptr, Integer offset) {
+    for (var user : users.getOrDefault(ptr, new ArrayList<>())) {
+      if (user instanceof IRBitcastInst cast) {
+        if (!follow(call, cast.dest, offset))
+          return false;
+      } else if (user instanceof IRGetElementPtrInst gep && gep.ptr == ptr && !gep.indexList.contains(ptr)) {
+        if (!follow(call, gep.res, offset == null ? null : addOffset(gep, offset)))
+          return false;
+      } else if (user instanceof IRLoadInst load) {
+        accesses.get(call).add(load);
+        offsetOf.put(load, offset);
+      } else if (user instanceof IRStoreInst store && store.val != ptr) {
+        accesses.get(call).add(store);
+        offsetOf.put(store, offset);
+      } else
+        return false;
+    }
+    return true;
+  }
+
+  // the same element sizes as InstSelector
+  Integer addOffset(IRGetElementPtrInst gep, int offset) {
+    IREntity index = gep.pToType instanceof IRStructType ? gep.indexList.get(1) : gep.indexList.get(0);
+    if (!(index instanceof IRIntConst intConst))
+      return null;
+    return offset + intConst.val * (gep.pToType == irBoolType ? 1 : 4);
+  }
+}
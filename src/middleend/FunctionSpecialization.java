@@ -0,0 +1,195 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/*
+ * Function specialization, before ModRefAnalyzer
+ * a hot call (in a loop, or of a recursive function) that passes constants the callee compares, the
+ * conditions of its branches and the bounds of its loops, calls a clone with the constants in place
+ * of the parameters instead, which SCCP then folds
+ *  - the calls passing the same constants share a clone, and a recursive call of the clone that
+ *    passes them on calls the clone itself
+ *  - a parameter every call agrees on is left to IPSCCP
+ *  - only functions of at most maxSize instructions are cloned, and all the clones together are
+ *    bounded by cloneBudget instructions
+ */
+
+public class FunctionSpecialization {
+  static final int maxSize = 300, cloneBudget = 1500;
+
+  IRProgram program;
+  int budgetUsed = 0, cloneCnt = 0;
+
+  HashMap<String, IRFunction> funcMap = new HashMap<>();
+  HashMap<IRFunction, ArrayList<IRCallInst>> callSites = new HashMap<>();
+  HashMap<IRFunction, HashSet<IRRegister>> compared = new HashMap<>();
+  HashSet<IRFunction> recursive = new HashSet<>();
+  // the parameters a recursive function passes on unchanged to every recursive call
+  HashMap<IRFunction, HashSet<IRRegister>> passedOn = new HashMap<>();
+  HashMap<String, IRFunction> clones = new HashMap<>();
+
+  public FunctionSpecialization(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    for (var func : program.funcList) {
+      funcMap.put(func.name, func);
+      callSites.put(func, new ArrayList<>());
+    }
+    for (var func : program.funcList) {
+      var params = paramsOf(func);
+      var list = new HashSet<IRRegister>();
+      var invariant = new HashSet<>(func.params);
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRIcmpInst icmp) {
+            if (params.containsKey(icmp.lhs))
+              list.add(params.get(icmp.lhs));
+            if (params.containsKey(icmp.rhs))
+              list.add(params.get(icmp.rhs));
+          } else if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName)) {
+            callSites.get(funcMap.get(call.funcName)).add(call);
+            if (call.funcName.equals(func.name)) {
+              recursive.add(func);
+              for (int i = 0; i < func.params.size(); ++i)
+                if (call.args.get(i) != func.params.get(i))
+                  invariant.remove(func.params.get(i));
+            }
+          }
+      compared.put(func, list);
+      passedOn.put(func, invariant);
+    }
+    for (var func : new ArrayList<>(program.funcList))
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName)) {
+            IRFunction callee = funcMap.get(call.funcName);
+            if (callee != func && callee != program.mainFunc
+                && (block.loopDepth > 0 || recursive.contains(callee)))
+              specialize(call, callee);
+          }
+  }
+
+  void specialize(IRCallInst call, IRFunction callee) {
+    // the constant arguments of compared parameters the calls do not all agree on
+    ArrayList<Integer> positions = new ArrayList<>();
+    String key = callee.name;
+    for (int i = 0; i < callee.params.size() && i < 8; ++i) {
+      IREntity arg = call.args.get(i);
+      if (!(arg instanceof IRIntConst || arg instanceof IRBoolConst)
+          || !compared.get(callee).contains(callee.params.get(i)) || allAgree(callee, i, (IRConst) arg))
+        continue;
+      // a clone of a recursive function is only worth it if the recursion stays in it
+      if (recursive.contains(callee) && !passedOn.get(callee).contains(callee.params.get(i)))
+        continue;
+      positions.add(i);
+      key += "," + i + "=" + arg;
+    }
+    if (positions.isEmpty())
+      return;
+    IRFunction clone = clones.get(key);
+    if (clone == null) {
+      int size = Inliner.sizeOf(callee);
+      if (size > maxSize || budgetUsed + size > cloneBudget)
+        return;
+      budgetUsed += size;
+      clone = cloneOf(callee, callee.name + ".spec" + cloneCnt++);
+      for (int i : positions)
+        replaceUses(clone, clone.params.get(i), call.args.get(i));
+      // the recursion that passes the constants on stays in the clone
+      for (var block : clone.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst self && self.funcName.equals(callee.name)
+              && positions.stream().allMatch(i -> self.args.get(i) instanceof IRConst c
+                  && c.equals((IRConst) call.args.get(i))))
+            self.funcName = clone.name;
+      clones.put(key, clone);
+      program.funcList.add(program.funcList.indexOf(callee) + 1, clone);
+    }
+    call.funcName = clone.name;
+  }
+
+  // the parameters, and the phis that only carry one around a loop (a tail recursion turned into a loop)
+  HashMap<IREntity, IRRegister> paramsOf(IRFunction func) {
+    HashMap<IREntity, IRRegister> ret = new HashMap<>();
+    func.params.forEach(param -> ret.put(param, param));
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRPhiInst phi) {
+          IRRegister param = null;
+          for (var val : phi.values)
+            if (val != phi.dest && (!func.params.contains(val) || param != null && param != val)) {
+              param = null;
+              break;
+            } else if (val != phi.dest)
+              param = (IRRegister) val;
+          if (param != null)
+            ret.put(phi.dest, param);
+        }
+    return ret;
+  }
+
+  boolean allAgree(IRFunction callee, int i, IRConst val) {
+    for (var call : callSites.get(callee))
+      if (call.args.get(i) != callee.params.get(i)
+          && !(call.args.get(i) instanceof IRConst c && c.equals(val)))
+        return false;
+    return true;
+  }
+
+  IRFunction cloneOf(IRFunction func, String name) {
+    IRFunction clone = new IRFunction(name, func.returnType);
+    Inliner cloner = new Inliner(program);
+    cloner.curFunc = clone;
+    for (var param : func.params) {
+      IRRegister copy = new IRRegister("", param.type);
+      clone.params.add(copy);
+      cloner.valueMap.put(param, copy);
+    }
+    var blocks = new LinkedHashSet<>(func.blocks);
+    for (var block : blocks) {
+      cloner.blockMap.put(block, new IRBasicBlock(clone, "spec_", block.loopDepth));
+      for (var inst : block.insts)
+        if (inst.getDef() != null)
+          cloner.valueMap.put(inst.getDef(), new IRRegister("", inst.getDef().type));
+    }
+    clone.entryBlock = cloner.blockMap.get(func.entryBlock);
+    clone.exitBlock = cloner.blockMap.get(func.exitBlock);
+    for (var block : blocks) {
+      IRBasicBlock newBlock = cloner.blockMap.get(block);
+      for (var inst : block.insts) {
+        IRInst copy = cloner.copy(inst, newBlock);
+        // the slots of the parameters after the 8th are still in the caller's frame
+        if (inst instanceof IRAllocaInst alloca)
+          ((IRAllocaInst) copy).param_idx = alloca.param_idx;
+        else if (inst instanceof IRStoreInst store)
+          ((IRStoreInst) copy).param_idx = store.param_idx;
+        copy.parentBlock = newBlock;
+        newBlock.insts.add(copy);
+      }
+      if (block.terminalInst instanceof IRRetInst ret)
+        newBlock.terminalInst = new IRRetInst(newBlock, cloner.map(ret.val));
+      else
+        newBlock.terminalInst = (IRTerminalInst) cloner.copy(block.terminalInst, newBlock);
+      clone.blocks.add(newBlock);
+    }
+    new CFGBuilder(program).workOnFunc(clone);
+    return clone;
+  }
+
+  void replaceUses(IRFunction func, IRRegister reg, IREntity val) {
+    for (var block : func.blocks) {
+      for (var inst : block.insts)
+        inst.replaceUse(reg, val);
+      block.terminalInst.replaceUse(reg, val);
+    }
+  }
+}
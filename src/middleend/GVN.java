@@ -0,0 +1,162 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/*
+ * Global value numbering over the dominator tree
+ * a pure instruction is hashed by its opcode, type and the value numbers of its operands,
+ * and is replaced by an equal instruction that dominates it
+ * reference: Briggs, Cooper & Simpson, Value Numbering (dominator-based scheme)
+ */
+
+public class GVN {
+  IRProgram program;
+  IRFunction curFunc;
+
+  IdentityHashMap<IREntity, Integer> valueNumber = new IdentityHashMap<>();
+  // expressions available in the current block, scoped by the dominator tree
+  HashMap<String, IRRegister> available = new HashMap<>();
+  HashMap<IREntity, IREntity> replace = new HashMap<>();
+
+  public GVN(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    valueNumber.clear();
+    available.clear();
+    replace.clear();
+    new DomTreeBuilder(program).workOnFunc(func);
+    visitBlock(func.entryBlock);
+    for (var block : func.blocks) {
+      block.insts.removeIf(inst -> inst.isDeleted);
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, resolve(use));
+      for (var use : block.terminalInst.getUse())
+        if (replace.containsKey(use))
+          block.terminalInst.replaceUse(use, resolve(use));
+    }
+  }
+
+  IREntity resolve(IREntity val) {
+    while (replace.containsKey(val))
+      val = replace.get(val);
+    return val;
+  }
+
+  String number(IREntity entity) {
+    entity = resolve(entity);
+    if (entity instanceof IRIntConst intConst)
+      return "#" + intConst.val;
+    if (entity instanceof IRBoolConst || entity instanceof IRCondConst || entity instanceof IRNullConst)
+      return entity.toStringWithType();
+    return "%" + valueNumber.computeIfAbsent(entity, k -> valueNumber.size());
+  }
+
+  void visitBlock(IRBasicBlock block) {
+    ArrayList<String> added = new ArrayList<>();
+    for (var inst : block.insts) {
+      String key = keyOf(inst);
+      if (key == null)
+        continue;
+      IRRegister def = inst.getDef();
+      IRRegister old = available.get(key);
+      if (old != null) {
+        inst.isDeleted = true;
+        replace.put(def, old);
+      } else {
+        available.put(key, def);
+        added.add(key);
+      }
+    }
+    block.domChildren.forEach(child -> visitBlock(child));
+    for (var key : added)
+      available.remove(key);
+  }
+
+  static boolean isCommutative(String op) {
+    return op.equals("add") || op.equals("mul") || op.equals("and") || op.equals("or") || op.equals("xor")
+        || op.equals("eq") || op.equals("ne");
+  }
+
+  // null if the instruction may not be merged with another one
+  String keyOf(IRInst inst) {
+    if (inst instanceof IRCalcInst calc)
+      return binaryKey(calc.op, calc.resultType.toString(), number(calc.lhs), number(calc.rhs));
+    if (inst instanceof IRIcmpInst icmp) {
+      String lhs = number(icmp.lhs), rhs = number(icmp.rhs);
+      // a > b is b < a
+      if (icmp.op.equals("sgt"))
+        return binaryKey("slt", icmp.type.toString(), rhs, lhs);
+      if (icmp.op.equals("sge"))
+        return binaryKey("sle", icmp.type.toString(), rhs, lhs);
+      return binaryKey(icmp.op, icmp.type.toString(), lhs, rhs);
+    }
+    if (inst instanceof IRCastInst cast)
+      return cast.getClass().getSimpleName() + " " + cast.targetType + " " + number(cast.val);
+    if (inst instanceof IRGetElementPtrInst gep) {
+      String key = "gep " + gep.pToType + " " + number(gep.ptr);
+      for (var index : gep.indexList)
+        key += " " + number(index);
+      return key;
+    }
+    if (inst instanceof IRPhiInst phi)
+      return phiKey(phi);
+    // a call whose value only depends on its arguments
+    if (inst instanceof IRCallInst call && call.callReg != null && IREffect.readNone(program.effectsOf(call.funcName))) {
+      String key = "call " + call.funcName;
+      for (var arg : call.args)
+        key += " " + number(arg);
+      return key;
+    }
+    return null;
+  }
+
+  String binaryKey(String op, String type, String lhs, String rhs) {
+    if (isCommutative(op) && lhs.compareTo(rhs) > 0)
+      return op + " " + type + " " + rhs + " " + lhs;
+    return op + " " + type + " " + lhs + " " + rhs;
+  }
+
+  // phis of the same block with the same incoming values are equal
+  String phiKey(IRPhiInst phi) {
+    ArrayList<String> incoming = new ArrayList<>();
+    String only = null;
+    boolean same = true;
+    for (int i = 0; i < phi.values.size(); ++i) {
+      if (resolve(phi.values.get(i)) == phi.dest)
+        continue;
+      String val = number(phi.values.get(i));
+      if (only == null)
+        only = val;
+      else if (!only.equals(val))
+        same = false;
+      incoming.add(phi.blocks.get(i).name + ":" + val);
+    }
+    // a phi of a single value is that value
+    if (same && only != null) {
+      IREntity val = null;
+      for (var value : phi.values)
+        if (resolve(value) != phi.dest)
+          val = resolve(value);
+      phi.isDeleted = true;
+      replace.put(phi.dest, val);
+      return null;
+    }
+    incoming.sort(null);
+    return "phi " + phi.parentBlock.name + " " + String.join(" ", incoming);
+  }
+}
@@ -37,7 +37,14 @@ public class Global2Local {
       if (inOneFunc && inFunc != null && (inFunc == program.mainFunc || inFunc == program.initFunc)) {
         IRRegister reg = new IRRegister("global", global.type);
         inFunc.allocaInsts.add(new IRAllocaInst(inFunc.entryBlock, ((IRPtrType) global.type).pointToType(), reg));
-        inFunc.entryBlock.insts.addFirst(new IRStoreInst(inFunc.entryBlock, global.initVal, reg));
+        IREntity initVal = global.initVal;
+        if (initVal instanceof IRStringConst str) {
+          initVal = new IRRegister("", ((IRPtrType) global.type).pointToType());
+          inFunc.entryBlock.insts.addFirst(new IRStoreInst(inFunc.entryBlock, initVal, reg));
+          inFunc.entryBlock.insts.addFirst(new IRGetElementPtrInst(inFunc.entryBlock, str, (IRRegister) initVal,
+              new IRIntConst(0), new IRIntConst(0)));
+        } else
+          inFunc.entryBlock.insts.addFirst(new IRStoreInst(inFunc.entryBlock, initVal, reg));
         for (var block : inFunc.blocks)
           for (var inst : block.insts)
             inst.replaceUse(global, reg);
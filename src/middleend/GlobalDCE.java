@@ -0,0 +1,93 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Whole-program dead code elimination
+ *  - the functions that cannot be reached from main through the call graph are removed
+ *  - a global that is only ever stored to is removed with its stores
+ *  - the string constants no longer referenced are not emitted
+ * the init function goes away as well once nothing calls it (an empty one is a removable call)
+ */
+
+public class GlobalDCE {
+  IRProgram program;
+
+  HashMap<String, IRFunction> funcMap = new HashMap<>();
+
+  public GlobalDCE(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    for (var func : program.funcList)
+      funcMap.put(func.name, func);
+    removeFunctions();
+    removeGlobals();
+    removeStrings();
+  }
+
+  void removeFunctions() {
+    HashSet<IRFunction> reachable = new HashSet<>();
+    LinkedList<IRFunction> workList = new LinkedList<>();
+    reachable.add(program.mainFunc);
+    workList.add(program.mainFunc);
+    while (!workList.isEmpty()) {
+      IRFunction func = workList.removeFirst();
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName)
+              && reachable.add(funcMap.get(call.funcName)))
+            workList.add(funcMap.get(call.funcName));
+    }
+    program.funcList.removeIf(func -> !reachable.contains(func));
+    if (!reachable.contains(program.initFunc))
+      program.initFunc = null;
+  }
+
+  // a global is live if it is used other than as the address of a store
+  void removeGlobals() {
+    HashSet<IREntity> live = new HashSet<>();
+    for (var func : program.funcList)
+      for (var block : func.blocks) {
+        for (var inst : block.insts)
+          for (var use : inst.getUse())
+            if (use instanceof IRGlobalVar && !(inst instanceof IRStoreInst store && store.destAddr == use
+                && store.val != use))
+              live.add(use);
+        for (var use : block.terminalInst.getUse())
+          live.add(use);
+      }
+    var newList = new ArrayList<IRGlobalVar>();
+    for (var global : program.globalVarList)
+      if (live.contains(global))
+        newList.add(global);
+    if (newList.size() == program.globalVarList.size())
+      return;
+    program.globalVarList = newList;
+    for (var func : program.funcList)
+      for (var block : func.blocks)
+        block.insts.removeIf(inst -> inst instanceof IRStoreInst store && store.destAddr instanceof IRGlobalVar
+            && !live.contains(store.destAddr));
+  }
+
+  void removeStrings() {
+    HashSet<IREntity> used = new HashSet<>();
+    for (var global : program.globalVarList)
+      used.add(global.initVal);
+    for (var func : program.funcList)
+      for (var block : func.blocks) {
+        for (var inst : block.insts)
+          used.addAll(inst.getUse());
+        used.addAll(block.terminalInst.getUse());
+      }
+    program.stringConst.values().removeIf(str -> !used.contains(str));
+  }
+}
@@ -0,0 +1,158 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Stack allocation of the arrays and objects that do not escape (EscapeAnalyzer)
+ * a malloc of a constant size becomes an alloca of as many bytes in the entry block, so it is in the
+ * frame once instead of on the heap for every execution, a loop reuses the same bytes
+ * the memory is cleared where the malloc was, as a fresh malloc is, by a loop unless it is a few words,
+ * the size header is stored there as before
+ * the bytes of one array and of one frame are bounded, and a recursive function keeps its mallocs, as
+ * it would have a frame per call on the stack
+ */
+
+public class HeapToStack implements BuiltinElements {
+  static final int MAX_ARRAY_BYTES = 256, MAX_FRAME_BYTES = 1024;
+  static final int MAX_UNROLLED_WORDS = 4; // a loop is not shorter than this many stores
+
+  HashSet<IRFunction> recursive = new HashSet<>();
+  boolean changedCFG;
+
+  IRProgram program;
+  IRFunction curFunc;
+  EscapeAnalyzer escape;
+
+  public HeapToStack(IRProgram program) {
+    this.program = program;
+    escape = new EscapeAnalyzer(program);
+  }
+
+  public void work() {
+    findRecursive();
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  // the functions that can call themselves, directly or through others
+  void findRecursive() {
+    HashMap<String, IRFunction> funcMap = new HashMap<>();
+    program.funcList.forEach(func -> funcMap.put(func.name, func));
+    HashMap<IRFunction, ArrayList<IRFunction>> callees = new HashMap<>();
+    for (var func : program.funcList) {
+      var list = new ArrayList<IRFunction>();
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName))
+            list.add(funcMap.get(call.funcName));
+      callees.put(func, list);
+    }
+    for (var func : program.funcList) {
+      HashSet<IRFunction> visited = new HashSet<>();
+      ArrayList<IRFunction> stack = new ArrayList<>(callees.get(func));
+      while (!stack.isEmpty()) {
+        var callee = stack.remove(stack.size() - 1);
+        if (callee == func) {
+          recursive.add(func);
+          break;
+        }
+        if (visited.add(callee))
+          stack.addAll(callees.get(callee));
+      }
+    }
+  }
+
+  void workOnFunc(IRFunction func) {
+    if (recursive.contains(func))
+      return;
+    curFunc = func;
+    changedCFG = false;
+    escape.workOnFunc(func);
+    int frameBytes = 0;
+    for (var call : escape.mallocs) {
+      if (escape.escaping.contains(call) || !(call.args.get(0) instanceof IRIntConst size))
+        continue;
+      int bytes = size.val + 3 & ~3;
+      if (bytes <= 0 || bytes > MAX_ARRAY_BYTES || frameBytes + bytes > MAX_FRAME_BYTES)
+        continue;
+      frameBytes += bytes;
+      moveToStack(call, bytes);
+    }
+    if (changedCFG)
+      new CFGBuilder(program).workOnFunc(func);
+  }
+
+  void moveToStack(IRCallInst call, int bytes) {
+    IRRegister slot = new IRRegister("", new IRPtrType(irIntType));
+    IRAllocaInst alloca = new IRAllocaInst(curFunc.entryBlock, irIntType, slot);
+    alloca.count = bytes >> 2;
+    curFunc.entryBlock.insts.addFirst(alloca);
+
+    // call.callReg = bitcast slot, then the words are cleared
+    IRBasicBlock block = call.parentBlock;
+    int index = block.insts.indexOf(call);
+    block.insts.set(index, new IRBitcastInst(block, slot, call.callReg.type, call.callReg));
+    if (bytes >> 2 > MAX_UNROLLED_WORDS) {
+      clearByLoop(block, index, slot, bytes >> 2);
+      return;
+    }
+    for (int i = 0; i < bytes >> 2; ++i) {
+      IRRegister addr = slot;
+      if (i != 0) {
+        addr = new IRRegister("", slot.type);
+        block.insts.add(++index, new IRGetElementPtrInst(block, slot, addr, new IRIntConst(i)));
+      }
+      block.insts.add(++index, new IRStoreInst(block, irIntConst0, addr));
+    }
+  }
+
+  // the block is split after index, and a loop between the two halves clears the words
+  void clearByLoop(IRBasicBlock block, int index, IRRegister slot, int words) {
+    IRBasicBlock loopBlock = new IRBasicBlock(curFunc, "clear_", block.loopDepth + 1);
+    IRBasicBlock nextBlock = new IRBasicBlock(curFunc, "clear.end_", block.loopDepth);
+    while (block.insts.size() > index + 1) {
+      IRInst inst = block.insts.remove(index + 1);
+      inst.parentBlock = nextBlock;
+      nextBlock.insts.add(inst);
+    }
+    nextBlock.terminalInst = block.terminalInst;
+    nextBlock.terminalInst.parentBlock = nextBlock;
+    ArrayList<IRBasicBlock> succs = new ArrayList<>();
+    if (nextBlock.terminalInst instanceof IRJumpInst jump)
+      succs.add(jump.toBlock);
+    else if (nextBlock.terminalInst instanceof IRBranchInst br) {
+      succs.add(br.thenBlock);
+      succs.add(br.elseBlock);
+    }
+    for (var succ : succs)
+      for (var inst : succ.insts)
+        if (inst instanceof IRPhiInst phi)
+          phi.blocks.replaceAll(from -> from == block ? nextBlock : from);
+    block.terminalInst = new IRJumpInst(block, loopBlock);
+
+    // i = phi [0, block], [i + 1, loop], slot[i] = 0 while i + 1 < words
+    IRRegister i = new IRRegister("", irIntType), next = new IRRegister("", irIntType);
+    IRRegister addr = new IRRegister("", slot.type), cond = new IRRegister("", irCondType);
+    IRPhiInst phi = new IRPhiInst(loopBlock, null, i);
+    phi.add(irIntConst0, block);
+    phi.add(next, loopBlock);
+    loopBlock.insts.add(phi);
+    loopBlock.insts.add(new IRGetElementPtrInst(loopBlock, slot, addr, i));
+    loopBlock.insts.add(new IRStoreInst(loopBlock, irIntConst0, addr));
+    loopBlock.insts.add(new IRCalcInst(loopBlock, irIntType, next, i, irIntConst1, "add"));
+    loopBlock.insts.add(new IRIcmpInst(loopBlock, irIntType, cond, next, new IRIntConst(words), "slt"));
+    loopBlock.terminalInst = new IRBranchInst(loopBlock, cond, loopBlock, nextBlock);
+
+    int pos = curFunc.blocks.indexOf(block) + 1;
+    curFunc.blocks.add(pos, loopBlock);
+    curFunc.blocks.add(pos + 1, nextBlock);
+    changedCFG = true;
+  }
+}
@@ -0,0 +1,132 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/*
+ * Interprocedural constant propagation, after SCCP
+ *  - a parameter is replaced by a constant if every call passes that constant, a recursive call may
+ *    pass the parameter itself on
+ *  - the value of a call is replaced by the constant its callee always returns
+ * the functions that changed are folded again by SCCP, which may make more arguments and returns
+ * constant, so the rounds go on until nothing changes
+ * the parameters left unused are removed by DeadArgumentElimination
+ */
+
+public class IPSCCP implements BuiltinElements {
+  static final int maxRounds = 8;
+
+  IRProgram program;
+
+  HashMap<String, IRFunction> funcMap = new HashMap<>();
+  HashMap<IRFunction, ArrayList<IRCallInst>> callSites = new HashMap<>();
+  HashMap<IRCallInst, IRFunction> callerOf = new HashMap<>();
+
+  public IPSCCP(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    for (var func : program.funcList)
+      funcMap.put(func.name, func);
+    SCCP sccp = new SCCP(program);
+    for (int round = 0; round < maxRounds; ++round) {
+      collectCallSites();
+      LinkedHashSet<IRFunction> changed = new LinkedHashSet<>();
+      for (var func : program.funcList) {
+        var calls = callSites.get(func);
+        if (func == program.mainFunc || calls.isEmpty())
+          continue;
+        for (int i = 0; i < func.params.size() && i < 8; ++i) {
+          IRConst val = agreedArgument(func, i, calls);
+          if (val != null && replaceUses(func, func.params.get(i), typed(val, func.params.get(i))))
+            changed.add(func);
+        }
+        IRConst ret = returnedConst(func);
+        if (ret != null)
+          for (var call : calls)
+            if (call.callReg != null && replaceUses(callerOf.get(call), call.callReg, typed(ret, call.callReg)))
+              changed.add(callerOf.get(call));
+      }
+      if (changed.isEmpty())
+        break;
+      changed.forEach(func -> sccp.workOnFunc(func));
+    }
+  }
+
+  void collectCallSites() {
+    callSites.clear();
+    callerOf.clear();
+    for (var func : program.funcList)
+      callSites.put(func, new ArrayList<>());
+    for (var func : program.funcList)
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName)) {
+            callSites.get(funcMap.get(call.funcName)).add(call);
+            callerOf.put(call, func);
+          }
+  }
+
+  // the constant every call passes as the i-th argument, null if they differ
+  // (the arguments of a parameter have one type, a bool may be an i1 or an i8 constant)
+  IRConst agreedArgument(IRFunction func, int i, ArrayList<IRCallInst> calls) {
+    IRRegister param = func.params.get(i);
+    IRConst val = null;
+    for (var call : calls) {
+      IREntity arg = call.args.get(i);
+      if (arg == param)
+        continue;
+      if (!isConst(arg) || val != null && SCCP.intValue(val) != SCCP.intValue((IRConst) arg))
+        return null;
+      val = (IRConst) arg;
+    }
+    return val;
+  }
+
+  IRConst returnedConst(IRFunction func) {
+    if (func.returnType == irVoidType)
+      return null;
+    IRConst val = null;
+    for (var block : func.blocks)
+      if (block.terminalInst instanceof IRRetInst ret) {
+        if (!isConst(ret.val) || val != null && SCCP.intValue(val) != SCCP.intValue((IRConst) ret.val))
+          return null;
+        val = (IRConst) ret.val;
+      }
+    return val;
+  }
+
+  boolean isConst(IREntity entity) {
+    return entity instanceof IRIntConst || entity instanceof IRBoolConst || entity instanceof IRCondConst
+        || entity instanceof IRNullConst;
+  }
+
+  // a bool literal may be passed as an i1 to an i8 parameter
+  IRConst typed(IRConst val, IRRegister reg) {
+    IRConst ret = SCCP.makeConst(reg.type, SCCP.intValue(val));
+    return ret != null ? ret : val;
+  }
+
+  boolean replaceUses(IRFunction func, IRRegister reg, IREntity val) {
+    boolean changed = false;
+    for (var block : func.blocks) {
+      for (var inst : block.insts)
+        if (inst.getUse().contains(reg)) {
+          inst.replaceUse(reg, val);
+          changed = true;
+        }
+      if (block.terminalInst.getUse().contains(reg)) {
+        block.terminalInst.replaceUse(reg, val);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+}
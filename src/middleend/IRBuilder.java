@@ -10,6 +10,7 @@ import IR.entity.*;
 import IR.type.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 public class IRBuilder implements ASTVisitor, BuiltinElements {
   IRFunction currentFunction = null;
@@ -21,6 +22,10 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
   
   HashMap<String, IRStructType> structTypeMap = new HashMap<>();
   HashMap<IRRegister, Integer> arraySizeMap = new HashMap<>();
+  // the type tags of the element addresses, copied to their loads and stores at the end
+  HashMap<IRRegister, String> typeTags = new HashMap<>();
+  // the stores of newArray that fill the rows of the 2-d arrays, see finishRowTags
+  HashSet<IRStoreInst> rowFills = new HashSet<>();
 
   public IRBuilder(IRProgram root, GlobalScope globalScope) {
     this.root = root;
@@ -121,6 +126,44 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
       mainEntry.insts.addFirst(new IRCallInst(mainEntry, irVoidType, "__mx_global_var_init"));
     }
     // root.mainFunc.finish();
+    root.funcList.forEach(func -> tagAccesses(func));
+    finishRowTags();
+    // malloc of a class keeps 4 bytes for every member, StructLayout shrinks it
+    root.structTypeList.forEach(structType -> structType.calcSize());
+  }
+
+  // a class field is tagged by its class and name, an array element by its type, the array size by "size"
+  private IRGetElementPtrInst tagged(IRGetElementPtrInst gep, String tag) {
+    gep.typeTag = tag;
+    typeTags.put(gep.res, tag);
+    return gep;
+  }
+
+  private String elementTag(IRType arrayType) {
+    return ((IRPtrType) arrayType).pointToType() + "[]";
+  }
+
+  private void tagAccesses(IRFunction func) {
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRLoadInst load)
+          load.typeTag = typeTags.get(load.srcAddr);
+        else if (inst instanceof IRStoreInst store)
+          store.typeTag = typeTags.get(store.destAddr);
+  }
+
+  // the rows of a 2-d array stay where newArray put them if no row of its type is assigned elsewhere
+  private void finishRowTags() {
+    HashSet<String> jagged = new HashSet<>();
+    for (var func : root.funcList)
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRStoreInst store && store.typeTag != null && !rowFills.contains(store))
+            jagged.add(store.typeTag);
+    rowFills.forEach(fill -> {
+      if (!jagged.contains(fill.typeTag))
+        root.flatRowTags.add(fill.typeTag);
+    });
   }
 
   @Override
@@ -218,6 +261,7 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
       // do not add to currentScope
     } else {
       IRGlobalVar gVar = new IRGlobalVar(node.varName, node.type.irType);
+      Object constVal = node.initVal == null ? null : evaluate(node.initVal);
       if (node.initVal != null && node.initVal instanceof AtomExprNode
           && !node.initVal.type.equals(StringType) && !node.initVal.str.equals("this")) {
         node.initVal.accept(this);
@@ -225,6 +269,11 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
             ? new IRBoolConst(((IRCondConst) node.initVal.value).val)
             : node.initVal.value;
         globalScope.addIRVar(node.varName, gVar);
+      } else if (constVal != null) {
+        // known at compile time, goes to .data instead of __mx_global_var_init
+        gVar.initVal = constVal instanceof Integer val ? new IRIntConst(val)
+            : constVal instanceof Boolean val ? new IRBoolConst(val) : root.stringConstOf((String) constVal);
+        globalScope.addIRVar(node.varName, gVar);
       } else {
         gVar.initVal = node.type.irType.defaultValue();
         globalScope.addIRVar(node.varName, gVar);
@@ -245,6 +294,89 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
     }
   }
 
+  // the value of a global initializer if it is known at compile time: Integer, Boolean or String, else null
+  // a global read by it must have a constant initializer and nothing may have run in the init function yet
+  private Object evaluate(ExprNode node) {
+    if (node instanceof VarExprNode var) {
+      if (!(globalScope.getIRVarPtr(var.str) instanceof IRGlobalVar global)
+          || root.globalVarList.stream().anyMatch(other -> other.isCallInit))
+        return null;
+      if (global.initVal instanceof IRIntConst val)
+        return val.val;
+      if (global.initVal instanceof IRBoolConst val)
+        return val.val;
+      if (global.initVal instanceof IRStringConst val)
+        return val.val;
+      return null;
+    }
+    if (node instanceof AtomExprNode) {
+      if (node.type.equals(IntType))
+        return Integer.parseInt(node.str);
+      if (node.type.equals(BoolType))
+        return node.str.equals("true");
+      if (node.type.equals(StringType))
+        return IRProgram.unescape(node.str.substring(1, node.str.length() - 1));
+      return null;
+    }
+    if (node instanceof UnaryExprNode unary) {
+      Object val = evaluate(unary.expr);
+      if (val instanceof Integer i)
+        switch (unary.op) {
+          case "+": return i;
+          case "-": return -i;
+          case "~": return ~i;
+        }
+      if (val instanceof Boolean b && unary.op.equals("!"))
+        return !b;
+      return null;
+    }
+    if (node instanceof BinaryExprNode binary) {
+      Object lhs = evaluate(binary.lhs), rhs = evaluate(binary.rhs);
+      if (lhs instanceof Integer l && rhs instanceof Integer r)
+        switch (binary.op) {
+          case "+": return l + r;
+          case "-": return l - r;
+          case "*": return l * r;
+          case "/": return r == 0 ? null : l / r;
+          case "%": return r == 0 ? null : l % r;
+          case "<<": return l << r;
+          case ">>": return l >> r;
+          case "&": return l & r;
+          case "|": return l | r;
+          case "^": return l ^ r;
+          case "<": return l < r;
+          case "<=": return l <= r;
+          case ">": return l > r;
+          case ">=": return l >= r;
+          case "==": return l.equals(r);
+          case "!=": return !l.equals(r);
+        }
+      if (lhs instanceof Boolean l && rhs instanceof Boolean r)
+        switch (binary.op) {
+          case "&&": return l && r;
+          case "||": return l || r;
+          case "==": return l == r;
+          case "!=": return l != r;
+        }
+      if (lhs instanceof String l && rhs instanceof String r)
+        switch (binary.op) {
+          case "+": return l + r;
+          case "<": return l.compareTo(r) < 0;
+          case "<=": return l.compareTo(r) <= 0;
+          case ">": return l.compareTo(r) > 0;
+          case ">=": return l.compareTo(r) >= 0;
+          case "==": return l.equals(r);
+          case "!=": return !l.equals(r);
+        }
+      return null;
+    }
+    if (node instanceof FuncExprNode call && call.funcName instanceof VarExprNode func
+        && func.str.equals("toString") && call.args != null && call.args.exprs.size() == 1
+        && evaluate(call.args.exprs.get(0)) instanceof Integer val)
+      return String.valueOf(val);
+    return null;
+  }
+
   int param_idx = -1;
   @Override
   public void visit(ParameterListNode node) {
@@ -422,8 +554,8 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
           currentBlock.addInst(new IRLoadInst(currentBlock, thisVal, thisAddr));
           node.storePtr = new IRRegister("this." + node.str,
               new IRPtrType(((IRStructType) objRealType).getMemberType(node.str)));
-          currentBlock.addInst(new IRGetElementPtrInst(currentBlock, thisVal, node.storePtr, irIntConst0,
-              new IRIntConst(((IRStructType) objRealType).memberOffset.get(node.str))));
+          currentBlock.addInst(tagged(new IRGetElementPtrInst(currentBlock, thisVal, node.storePtr, irIntConst0,
+              new IRIntConst(((IRStructType) objRealType).memberOffset.get(node.str))), objRealType.name + "." + node.str));
         }
       }
     }
@@ -704,7 +836,7 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
         tmp1 = new IRRegister("", irIntPtrType);
         currentBlock.addInst(new IRBitcastInst(currentBlock, array, irIntPtrType, tmp1));
       }
-      currentBlock.addInst(new IRGetElementPtrInst(currentBlock, tmp1, tmp2, irIntConstn1));
+      currentBlock.addInst(tagged(new IRGetElementPtrInst(currentBlock, tmp1, tmp2, irIntConstn1), "size"));
       node.value = new IRRegister("", irIntType);
       currentBlock.addInst(new IRLoadInst(currentBlock, (IRRegister) node.value, tmp2)); 
     } else {
@@ -739,7 +871,8 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
     node.array.accept(this);
     node.index.accept(this);
     IRRegister dest = new IRRegister("", getVal(node.array).type);
-    currentBlock.addInst(new IRGetElementPtrInst(currentBlock, getVal(node.array), dest, getVal(node.index)));
+    currentBlock.addInst(tagged(new IRGetElementPtrInst(currentBlock, getVal(node.array), dest, getVal(node.index)),
+        elementTag(dest.type)));
     node.storePtr = dest;
   }
 
@@ -755,31 +888,77 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
       IRType memberType = ((IRStructType) objRealType).getMemberType(node.member);
       if (memberType != null) {
         node.storePtr = new IRRegister("", new IRPtrType(memberType));
-        currentBlock.addInst(new IRGetElementPtrInst(currentBlock, getVal(node.obj), node.storePtr, irIntConst0,
-            new IRIntConst(((IRStructType) objRealType).memberOffset.get(node.member))));
+        currentBlock.addInst(tagged(new IRGetElementPtrInst(currentBlock, getVal(node.obj), node.storePtr, irIntConst0,
+            new IRIntConst(((IRStructType) objRealType).memberOffset.get(node.member))), objRealType.name + "." + node.member));
       }
     }
   }
 
-  private IREntity newArray(IRType type, int at, ArrayList<ExprNode> sizeList) {
-    IRRegister callReg = new IRRegister("", new IRPtrType(irCharType));
-    sizeList.get(at).accept(this);
-    IREntity cnt = getVal(sizeList.get(at)), size;
+  private IREntity calc(String op, IREntity lhs, IREntity rhs) {
+    if (lhs instanceof IRIntConst l && rhs instanceof IRIntConst r)
+      return new IRIntConst(op.equals("add") ? l.val + r.val : op.equals("mul") ? l.val * r.val : l.val & r.val);
+    if (op.equals("mul") && lhs instanceof IRIntConst l && l.val == 1)
+      return rhs;
+    IRRegister dest = new IRRegister("", irIntType);
+    currentBlock.addInst(new IRCalcInst(currentBlock, irIntType, dest, lhs, rhs, op));
+    return dest;
+  }
+
+  // bytes of an array with its size in front, rounded to 4 if the next one follows it in the same malloc
+  private IREntity arrayBytes(IRType type, IREntity cnt, boolean packed) {
     int sizeOfType = ((IRPtrType) type).pointToType().size;
-    if (cnt instanceof IRIntConst) {
-      size = new IRIntConst(((IRIntConst) cnt).val * sizeOfType + 4);
-    } else {
-      IRIntConst typeSize = new IRIntConst(sizeOfType);
-      IRRegister tmpSize = new IRRegister("", irIntType);
-      currentBlock.addInst(new IRCalcInst(currentBlock, irIntType, tmpSize, cnt, typeSize, "mul"));
-      size = new IRRegister("", irIntType);
-      currentBlock.addInst(new IRCalcInst(currentBlock, irIntType, (IRRegister) size, tmpSize, irIntConst4, "add"));
+    IREntity size = calc("add", calc("mul", cnt, new IRIntConst(sizeOfType)), irIntConst4);
+    if (packed && sizeOfType % 4 != 0)
+      size = calc("and", calc("add", size, new IRIntConst(3)), new IRIntConst(-4));
+    return size;
+  }
+
+  // the sizes are evaluated once, an array of arrays takes all its rows from a single malloc (the pool)
+  private IREntity newArray(IRType type, int dim, ArrayList<ExprNode> sizeList) {
+    ArrayList<IREntity> cnts = new ArrayList<>();
+    for (var size : sizeList) {
+      size.accept(this);
+      cnts.add(getVal(size));
     }
-    currentBlock.addInst(new IRCallInst(currentBlock, callReg, new IRPtrType(irCharType), "malloc", size));
-  
+    if (cnts.size() == 1)
+      return newArray(type, dim, 0, cnts, null, null);
+
+    ArrayList<IREntity> rowBytes = new ArrayList<>();
+    IREntity total = null, rows = irIntConst1;
+    IRType levelType = type;
+    for (var cnt : cnts) {
+      rowBytes.add(arrayBytes(levelType, cnt, true));
+      IREntity bytes = calc("mul", rows, rowBytes.get(rowBytes.size() - 1));
+      total = total == null ? bytes : calc("add", total, bytes);
+      rows = calc("mul", rows, cnt);
+      levelType = ((IRPtrType) levelType).pointToType();
+    }
+    IRRegister callReg = new IRRegister("", irStringType), pool = new IRRegister("", new IRPtrType(irStringType));
+    currentBlock.addInst(new IRCallInst(currentBlock, callReg, irStringType, "malloc", total));
+    currentBlock.addInst(new IRAllocaInst(currentBlock, irStringType, pool));
+    currentBlock.addInst(new IRStoreInst(currentBlock, callReg, pool));
+    return newArray(type, dim, 0, cnts, rowBytes, pool);
+  }
+
+  // dim is the dimension of the whole array, so the elements at this level are rows of 1-d arrays if
+  // at == dim - 2
+  private IREntity newArray(IRType type, int dim, int at, ArrayList<IREntity> cnts, ArrayList<IREntity> rowBytes,
+      IRRegister pool) {
+    IRRegister callReg = new IRRegister("", irStringType), next = null;
+    IREntity cnt = cnts.get(at);
+    if (pool == null)
+      currentBlock.addInst(new IRCallInst(currentBlock, callReg, irStringType, "malloc", arrayBytes(type, cnt, false)));
+    else {
+      next = new IRRegister("", irStringType);
+      currentBlock.addInst(new IRLoadInst(currentBlock, callReg, pool));
+      currentBlock.addInst(new IRGetElementPtrInst(currentBlock, callReg, next, rowBytes.get(at)));
+      currentBlock.addInst(new IRStoreInst(currentBlock, next, pool));
+    }
+
     // store the size of array
     IRRegister ptr, tmp1 = new IRRegister("", irIntPtrType), tmp2 = new IRRegister("", irIntPtrType);
     currentBlock.addInst(new IRBitcastInst(currentBlock, callReg, irIntPtrType, tmp1));
+    typeTags.put(tmp1, "size");
     currentBlock.addInst(new IRStoreInst(currentBlock, cnt, tmp1));
     currentBlock.addInst(new IRGetElementPtrInst(currentBlock, tmp1, tmp2, irIntConst1));
     if (type.toString().equals("i32*")) ptr = tmp2;
@@ -787,8 +966,11 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
       ptr = new IRRegister("", type);
       currentBlock.addInst(new IRBitcastInst(currentBlock, tmp2, type, ptr));
     }
+    // the rows of a 2-d array start right after it
+    if (at == 0 && dim == 2 && cnts.size() == 2)
+      root.flatArrays.put(ptr, new IREntity[] {next, rowBytes.get(1)});
   
-    if (at + 1 < sizeList.size()) {
+    if (at + 1 < cnts.size()) {
       IRRegister idx = new IRRegister("", irIntPtrType);
       currentBlock.addInst(new IRAllocaInst(currentBlock, irIntType, idx));
       currentBlock.addInst(new IRStoreInst(currentBlock, irIntConst0, idx));
@@ -809,13 +991,16 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
       currentBlock.isFinished = true;
 
       currentBlock = currentFunction.appendBlock(loopBlock);
-      IREntity iPtrVal = newArray(((IRPtrType) type).pointToType(), at + 1, sizeList);
+      IREntity iPtrVal = newArray(((IRPtrType) type).pointToType(), dim, at + 1, cnts, rowBytes, pool);
       IRRegister iPtr = new IRRegister("", type);
       // should load in every block!
       IRRegister iVal2 = new IRRegister("", irIntType);
       currentBlock.addInst(new IRLoadInst(currentBlock, iVal2, idx));
-      currentBlock.addInst(new IRGetElementPtrInst(currentBlock, ptr, iPtr, iVal2));
-      currentBlock.addInst(new IRStoreInst(currentBlock, iPtrVal, iPtr));
+      currentBlock.addInst(tagged(new IRGetElementPtrInst(currentBlock, ptr, iPtr, iVal2), elementTag(type)));
+      IRStoreInst fill = new IRStoreInst(currentBlock, iPtrVal, iPtr);
+      currentBlock.addInst(fill);
+      if (at == dim - 2)
+        rowFills.add(fill);
       currentBlock.terminalInst = new IRJumpInst(currentBlock, stepBlock);
       currentBlock.isFinished = true;
 
@@ -836,7 +1021,7 @@ public class IRBuilder implements ASTVisitor, BuiltinElements {
   public void visit(NewExprNode node) {
     IRType type = typeTrans(node.type, false);
     if (node.dim > 0) {
-      node.value = node.sizeList.size() > 0 ? newArray(type, 0, node.sizeList) : new IRNullConst(type);
+      node.value = node.sizeList.size() > 0 ? newArray(type, node.dim, node.sizeList) : new IRNullConst(type);
     } else {
       IRStructType classType = (IRStructType) ((IRPtrType) type).pointToType();
       IRRegister callReg = new IRRegister("", irStringType);
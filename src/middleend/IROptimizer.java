@@ -1,13 +1,78 @@
 package middleend;
 
 import IR.*;
+import utils.*;
 
 public class IROptimizer {
   public IROptimizer(IRProgram program) {
-    new Global2Local(program).work();
+    this(program, new CompileBudget());
+  }
+
+  // passes after CFGBuilder are optional and are skipped when the budget is running out
+  public IROptimizer(IRProgram program, CompileBudget budget) {
+    if (budget.allowOptionalPass("Global2Local"))
+      new Global2Local(program).work();
+    else
+      program.funcList.forEach(func -> func.finish());
     new CFGBuilder(program).work();
+    if (!budget.allowOptionalPass("Mem2Reg"))
+      return;
+    if (budget.allowOptionalPass("Inliner"))
+      new Inliner(program).work();
     new Mem2Reg(program).work();
     new DeadCodeEliminator(program).work();
-    new ConstPropagation(program).work();
+    if (budget.allowOptionalPass("GlobalDCE"))
+      new GlobalDCE(program).work();
+    if (budget.allowOptionalPass("ArrayFlattening"))
+      new ArrayFlattening(program).work();
+    if (budget.allowOptionalPass("ScalarReplacement")) {
+      new ScalarReplacement(program).work();
+      new DeadCodeEliminator(program).work();
+    }
+    if (budget.allowOptionalPass("HeapToStack"))
+      new HeapToStack(program).work();
+    if (budget.allowOptionalPass("TailRecursionElimination"))
+      new TailRecursionElimination(program).work();
+    if (budget.allowOptionalPass("FunctionSpecialization"))
+      new FunctionSpecialization(program).work();
+    if (budget.allowOptionalPass("ModRefAnalyzer"))
+      new ModRefAnalyzer(program).work();
+    if (budget.allowOptionalPass("SCCP")) {
+      new SCCP(program).work();
+      new DeadCodeEliminator(program).work();
+    }
+    if (budget.allowOptionalPass("IPSCCP")) {
+      new IPSCCP(program).work();
+      new DeadCodeEliminator(program).work();
+    }
+    if (budget.allowOptionalPass("SimplifyCFG"))
+      new SimplifyCFG(program).work();
+    if (budget.allowOptionalPass("GVN"))
+      new GVN(program).work();
+    if (budget.allowOptionalPass("LoadElimination")) {
+      new LoadElimination(program).work();
+      new DeadStoreElimination(program).work();
+      new DeadCodeEliminator(program).work();
+    }
+    if (budget.allowOptionalPass("LICM"))
+      new LICM(program).work();
+    if (budget.allowOptionalPass("LoopScalarPromotion"))
+      new LoopScalarPromotion(program).work();
+    if (budget.allowOptionalPass("LoopStrengthReduction")) {
+      new LoopStrengthReduction(program).work();
+      new DeadCodeEliminator(program).work();
+    }
+    if (budget.allowOptionalPass("StructLayout"))
+      new StructLayout(program).work();
+    if (budget.allowOptionalPass("AggressiveDCE"))
+      new AggressiveDCE(program).work();
+    if (budget.allowOptionalPass("DeadArgumentElimination")) {
+      new DeadArgumentElimination(program).work();
+      new DeadCodeEliminator(program).work();
+    }
+    if (budget.allowOptionalPass("GlobalDCE"))
+      new GlobalDCE(program).work();
+    if (budget.allowOptionalPass("SimplifyCFG"))
+      new SimplifyCFG(program).work();
   }
-}
\ No newline at end of file
+}
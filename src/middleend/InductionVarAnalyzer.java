@@ -0,0 +1,158 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Induction variables of a loop
+ * a basic induction variable is a header phi i = phi [init, preheader], [i + step, latch] with a constant step
+ * a derived one is an affine function coef * i + inv + offset of a basic one, where inv is loop invariant
+ * (the chains of recurrences of scalar evolution, restricted to linear ones with constant coefficients)
+ */
+
+public class InductionVarAnalyzer {
+  public static class BasicIV {
+    public IRPhiInst phi;
+    public IREntity init;
+    public IRCalcInst next;
+    public int step;
+  }
+
+  public static class Affine {
+    public BasicIV iv;
+    public int coef, offset;
+    public IREntity inv; // null if there is no invariant term
+
+    Affine(BasicIV iv, int coef, IREntity inv, int offset) {
+      this.iv = iv;
+      this.coef = coef;
+      this.inv = inv;
+      this.offset = offset;
+    }
+
+    public int step() {
+      return coef * iv.step;
+    }
+  }
+
+  IRLoop loop;
+  public HashSet<IRRegister> definedInLoop = new HashSet<>();
+  public HashMap<IRRegister, BasicIV> basicIVs = new HashMap<>();
+  public HashMap<IRRegister, Affine> affine = new HashMap<>();
+
+  public InductionVarAnalyzer(IRLoop loop) {
+    this.loop = loop;
+  }
+
+  public boolean isInvariant(IREntity val) {
+    return !(val instanceof IRRegister reg) || !definedInLoop.contains(reg);
+  }
+
+  public void work() {
+    for (var block : loop.blocks)
+      for (var inst : block.insts)
+        if (inst.getDef() != null)
+          definedInLoop.add(inst.getDef());
+    if (loop.preheader == null || loop.latches.size() != 1)
+      return;
+    IRBasicBlock latch = loop.latches.get(0);
+    for (var inst : loop.header.insts) {
+      if (!(inst instanceof IRPhiInst phi))
+        break;
+      if (phi.values.size() != 2)
+        continue;
+      int fromLatch = phi.blocks.get(0) == latch ? 0 : 1;
+      if (phi.blocks.get(fromLatch) != latch || phi.blocks.get(1 - fromLatch) != loop.preheader)
+        continue;
+      if (!(phi.values.get(fromLatch) instanceof IRRegister nextReg))
+        continue;
+      BasicIV iv = new BasicIV();
+      iv.phi = phi;
+      iv.init = phi.values.get(1 - fromLatch);
+      if (!findStep(iv, nextReg))
+        continue;
+      basicIVs.put(phi.dest, iv);
+      affine.put(phi.dest, new Affine(iv, 1, null, 0));
+    }
+    if (!basicIVs.isEmpty())
+      visitBlock(loop.header);
+  }
+
+  // the increment must be i + c, c + i or i - c
+  boolean findStep(BasicIV iv, IRRegister nextReg) {
+    for (var block : loop.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRCalcInst calc && calc.res == nextReg) {
+          iv.next = calc;
+          if (calc.op.equals("add") && calc.lhs == iv.phi.dest && calc.rhs instanceof IRIntConst c)
+            iv.step = c.val;
+          else if (calc.op.equals("add") && calc.rhs == iv.phi.dest && calc.lhs instanceof IRIntConst c)
+            iv.step = c.val;
+          else if (calc.op.equals("sub") && calc.lhs == iv.phi.dest && calc.rhs instanceof IRIntConst c)
+            iv.step = -c.val;
+          else
+            return false;
+          return true;
+        }
+    return false;
+  }
+
+  // dominator tree order, so the operands of an instruction are classified before it
+  void visitBlock(IRBasicBlock block) {
+    for (var inst : block.insts)
+      if (inst instanceof IRCalcInst calc) {
+        Affine res = derive(calc);
+        if (res != null)
+          affine.put(calc.res, res);
+      }
+    for (var child : block.domChildren)
+      if (loop.contains(child))
+        visitBlock(child);
+  }
+
+  Affine derive(IRCalcInst calc) {
+    Affine lhs = calc.lhs instanceof IRRegister reg ? affine.get(reg) : null;
+    Affine rhs = calc.rhs instanceof IRRegister reg ? affine.get(reg) : null;
+    switch (calc.op) {
+      case "add":
+        if (lhs != null && rhs != null)
+          return lhs.iv == rhs.iv && (lhs.inv == null || rhs.inv == null)
+              ? new Affine(lhs.iv, lhs.coef + rhs.coef, lhs.inv == null ? rhs.inv : lhs.inv, lhs.offset + rhs.offset)
+              : null;
+        if (lhs == null && rhs != null)
+          return addInvariant(rhs, calc.lhs);
+        return lhs == null ? null : addInvariant(lhs, calc.rhs);
+      case "sub":
+        if (lhs != null && rhs == null && calc.rhs instanceof IRIntConst c)
+          return new Affine(lhs.iv, lhs.coef, lhs.inv, lhs.offset - c.val);
+        return null;
+      case "mul":
+        if (lhs != null && rhs == null && calc.rhs instanceof IRIntConst c)
+          return scale(lhs, c.val);
+        if (rhs != null && lhs == null && calc.lhs instanceof IRIntConst c)
+          return scale(rhs, c.val);
+        return null;
+      case "shl":
+        if (lhs != null && rhs == null && calc.rhs instanceof IRIntConst c && c.val >= 0 && c.val < 31)
+          return scale(lhs, 1 << c.val);
+        return null;
+    }
+    return null;
+  }
+
+  Affine addInvariant(Affine val, IREntity other) {
+    if (other instanceof IRIntConst c)
+      return new Affine(val.iv, val.coef, val.inv, val.offset + c.val);
+    if (isInvariant(other) && val.inv == null)
+      return new Affine(val.iv, val.coef, other, val.offset);
+    return null;
+  }
+
+  Affine scale(Affine val, int k) {
+    return val.inv != null ? null : new Affine(val.iv, val.coef * k, null, val.offset * k);
+  }
+}
@@ -0,0 +1,285 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+
+/*
+ * Function inlining, before Mem2Reg
+ * the callee is cloned into the caller: its allocas go to the entry block of the caller, the parameters
+ * are replaced by the arguments, and its exit block (the load of retAddr and the ret) jumps back to the
+ * rest of the calling block, the value of the call is the loaded return value
+ * functions are visited callees first, so a callee is inlined together with what was inlined into it
+ */
+
+public class Inliner {
+  IRProgram program;
+  IRFunction curFunc;
+
+  // a callee is inlined if its size is at most baseThreshold + the call overhead,
+  // and the threshold grows with the loop depth of the call
+  static final int baseThreshold = 40, depthBonus = 40, maxDepthBonus = 3;
+  static final int onlyCallThreshold = 300; // the only call of a function
+  static final int maxCallerSize = 3000;
+
+  HashMap<String, IRFunction> funcMap = new HashMap<>();
+  HashMap<IRFunction, ArrayList<IRFunction>> callees = new HashMap<>();
+  HashSet<IRFunction> recursive = new HashSet<>();
+  HashMap<String, Integer> callCnt = new HashMap<>();
+  HashMap<IRFunction, Integer> size = new HashMap<>();
+
+  public Inliner(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    for (var func : program.funcList)
+      funcMap.put(func.name, func);
+    for (var func : program.funcList) {
+      var list = new ArrayList<IRFunction>();
+      for (var block : func.blocks)
+        for (var inst : block.insts)
+          if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName)) {
+            list.add(funcMap.get(call.funcName));
+            callCnt.merge(call.funcName, 1, Integer::sum);
+          }
+      callees.put(func, list);
+      size.put(func, sizeOf(func));
+    }
+    for (var func : bottomUpOrder())
+      workOnFunc(func);
+  }
+
+  static int sizeOf(IRFunction func) {
+    int ret = 0;
+    for (var block : new LinkedHashSet<>(func.blocks))
+      ret += block.insts.size() + 1;
+    return ret;
+  }
+
+  // ------------------ call graph ------------------
+
+  // Tarjan's algorithm, a strongly connected component is finished after the ones it calls
+  int dfsCnt = 0;
+  HashMap<IRFunction, Integer> dfn = new HashMap<>(), low = new HashMap<>();
+  LinkedList<IRFunction> stack = new LinkedList<>();
+  HashSet<IRFunction> onStack = new HashSet<>();
+  ArrayList<IRFunction> order = new ArrayList<>();
+
+  ArrayList<IRFunction> bottomUpOrder() {
+    for (var func : program.funcList)
+      if (!dfn.containsKey(func))
+        tarjan(func);
+    return order;
+  }
+
+  void tarjan(IRFunction func) {
+    dfn.put(func, dfsCnt);
+    low.put(func, dfsCnt++);
+    stack.push(func);
+    onStack.add(func);
+    for (var callee : callees.get(func)) {
+      if (callee == func)
+        recursive.add(func);
+      if (!dfn.containsKey(callee)) {
+        tarjan(callee);
+        low.put(func, Math.min(low.get(func), low.get(callee)));
+      } else if (onStack.contains(callee))
+        low.put(func, Math.min(low.get(func), dfn.get(callee)));
+    }
+    if (low.get(func).equals(dfn.get(func))) {
+      ArrayList<IRFunction> scc = new ArrayList<>();
+      IRFunction top;
+      do {
+        top = stack.pop();
+        onStack.remove(top);
+        scc.add(top);
+      } while (top != func);
+      if (scc.size() > 1)
+        recursive.addAll(scc);
+      order.addAll(scc);
+    }
+  }
+
+  // ------------------ cost model ------------------
+
+  boolean shouldInline(IRCallInst call, IRFunction callee) {
+    if (callee == curFunc || recursive.contains(callee) || callee == program.mainFunc)
+      return false;
+    int calleeSize = size.get(callee);
+    if (size.get(curFunc) + calleeSize > maxCallerSize)
+      return false;
+    // the call itself costs the argument moves, the call and the callee-save traffic
+    int overhead = call.args.size() + 4;
+    if (callCnt.get(callee.name) == 1 && calleeSize <= onlyCallThreshold)
+      return true;
+    int depth = Math.min(call.parentBlock.loopDepth, maxDepthBonus);
+    return calleeSize <= baseThreshold + depth * depthBonus + overhead;
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    ArrayList<IRCallInst> calls = new ArrayList<>();
+    for (var block : new LinkedHashSet<>(func.blocks))
+      for (var inst : block.insts)
+        if (inst instanceof IRCallInst call && funcMap.containsKey(call.funcName))
+          calls.add(call);
+    boolean changed = false;
+    for (var call : calls) {
+      IRFunction callee = funcMap.get(call.funcName);
+      if (!shouldInline(call, callee))
+        continue;
+      inline(call, callee);
+      size.put(func, size.get(func) + size.get(callee));
+      changed = true;
+    }
+    if (changed)
+      new CFGBuilder(program).workOnFunc(func);
+  }
+
+  // ------------------ cloning ------------------
+
+  HashMap<IREntity, IREntity> valueMap = new HashMap<>();
+  HashMap<IRBasicBlock, IRBasicBlock> blockMap = new HashMap<>();
+
+  IREntity map(IREntity val) {
+    return valueMap.getOrDefault(val, val);
+  }
+
+  IRRegister mapReg(IRRegister reg) {
+    return (IRRegister) map(reg);
+  }
+
+  void inline(IRCallInst call, IRFunction callee) {
+    IRBasicBlock block = call.parentBlock;
+    int depth = block.loopDepth;
+
+    // split the block after the call
+    IRBasicBlock next = new IRBasicBlock(curFunc, "inline.next_", depth);
+    int index = block.insts.indexOf(call);
+    while (block.insts.size() > index + 1) {
+      IRInst inst = block.insts.remove(index + 1);
+      inst.parentBlock = next;
+      next.insts.add(inst);
+    }
+    block.insts.removeLast();
+    next.terminalInst = block.terminalInst;
+    next.terminalInst.parentBlock = next;
+    ArrayList<IRBasicBlock> succs = new ArrayList<>();
+    if (next.terminalInst instanceof IRJumpInst jump)
+      succs.add(jump.toBlock);
+    else if (next.terminalInst instanceof IRBranchInst br) {
+      succs.add(br.thenBlock);
+      succs.add(br.elseBlock);
+    }
+    for (var succ : succs)
+      for (var inst : succ.insts)
+        if (inst instanceof IRPhiInst phi)
+          phi.blocks.replaceAll(from -> from == block ? next : from);
+
+    valueMap.clear();
+    blockMap.clear();
+    for (int i = 0; i < callee.params.size(); ++i)
+      valueMap.put(callee.params.get(i), call.args.get(i));
+    var calleeBlocks = new LinkedHashSet<>(callee.blocks);
+    for (var calleeBlock : calleeBlocks) {
+      blockMap.put(calleeBlock, new IRBasicBlock(curFunc, "inline_", calleeBlock.loopDepth + depth));
+      for (var inst : calleeBlock.insts)
+        if (inst.getDef() != null)
+          valueMap.put(inst.getDef(), new IRRegister("", inst.getDef().type));
+    }
+
+    IREntity retVal = null;
+    ArrayList<IRBasicBlock> newBlocks = new ArrayList<>();
+    for (var calleeBlock : calleeBlocks) {
+      IRBasicBlock newBlock = blockMap.get(calleeBlock);
+      newBlocks.add(newBlock);
+      for (var inst : calleeBlock.insts) {
+        IRInst copy = copy(inst, newBlock);
+        if (copy instanceof IRAllocaInst)
+          curFunc.entryBlock.insts.addFirst(copy);
+        else
+          newBlock.insts.add(copy);
+      }
+      if (calleeBlock.terminalInst instanceof IRRetInst ret) {
+        retVal = map(ret.val);
+        newBlock.terminalInst = new IRJumpInst(newBlock, next);
+      } else
+        newBlock.terminalInst = (IRTerminalInst) copy(calleeBlock.terminalInst, newBlock);
+    }
+    block.terminalInst = new IRJumpInst(block, blockMap.get(callee.entryBlock));
+    for (var array : new ArrayList<>(program.flatArrays.keySet()))
+      if (valueMap.containsKey(array)) {
+        IREntity[] layout = program.flatArrays.get(array);
+        program.flatArrays.put(mapReg(array), new IREntity[] {map(layout[0]), map(layout[1])});
+      }
+
+    int pos = curFunc.blocks.indexOf(block) + 1;
+    curFunc.blocks.addAll(pos, newBlocks);
+    curFunc.blocks.add(pos + newBlocks.size(), next);
+
+    if (call.callReg != null)
+      for (var b : curFunc.blocks) {
+        for (var inst : b.insts)
+          inst.replaceUse(call.callReg, retVal);
+        b.terminalInst.replaceUse(call.callReg, retVal);
+      }
+  }
+
+  IRInst copy(IRInst inst, IRBasicBlock block) {
+    if (inst instanceof IRAllocaInst alloca) {
+      IRAllocaInst ret = new IRAllocaInst(curFunc.entryBlock, alloca.type, mapReg(alloca.allocaReg));
+      ret.count = alloca.count;
+      return ret;
+    }
+    if (inst instanceof IRBitcastInst cast)
+      return new IRBitcastInst(block, map(cast.val), cast.targetType, mapReg(cast.dest));
+    if (inst instanceof IRZextInst cast)
+      return new IRZextInst(block, mapReg(cast.dest), map(cast.val), cast.targetType);
+    if (inst instanceof IRTruncInst cast)
+      return new IRTruncInst(block, mapReg(cast.dest), map(cast.val), cast.targetType);
+    if (inst instanceof IRCalcInst calc)
+      return new IRCalcInst(block, calc.resultType, mapReg(calc.res), map(calc.lhs), map(calc.rhs), calc.op);
+    if (inst instanceof IRIcmpInst icmp)
+      return new IRIcmpInst(block, icmp.type, mapReg(icmp.cmpReg), map(icmp.lhs), map(icmp.rhs), icmp.op);
+    if (inst instanceof IRCallInst call) {
+      IRCallInst ret = new IRCallInst(block, call.callReg == null ? null : mapReg(call.callReg), call.returnType,
+          call.funcName);
+      call.args.forEach(arg -> ret.args.add(map(arg)));
+      return ret;
+    }
+    if (inst instanceof IRGetElementPtrInst gep) {
+      IRGetElementPtrInst ret = new IRGetElementPtrInst(block, map(gep.ptr), mapReg(gep.res));
+      gep.indexList.forEach(index -> ret.indexList.add(map(index)));
+      ret.typeTag = gep.typeTag;
+      return ret;
+    }
+    if (inst instanceof IRLoadInst load) {
+      IRLoadInst ret = new IRLoadInst(block, mapReg(load.destReg), map(load.srcAddr));
+      ret.typeTag = load.typeTag;
+      return ret;
+    }
+    if (inst instanceof IRStoreInst store) {
+      IRStoreInst ret = new IRStoreInst(block, map(store.val), mapReg(store.destAddr));
+      ret.typeTag = store.typeTag;
+      return ret;
+    }
+    if (inst instanceof IRPhiInst phi) {
+      IRPhiInst ret = new IRPhiInst(block, phi.src, mapReg(phi.dest));
+      for (int i = 0; i < phi.values.size(); ++i)
+        ret.add(map(phi.values.get(i)), blockMap.get(phi.blocks.get(i)));
+      return ret;
+    }
+    if (inst instanceof IRJumpInst jump)
+      return new IRJumpInst(block, blockMap.get(jump.toBlock));
+    if (inst instanceof IRBranchInst br)
+      return new IRBranchInst(block, map(br.cond), blockMap.get(br.thenBlock), blockMap.get(br.elseBlock));
+    throw new IllegalArgumentException("cannot copy " + inst);
+  }
+}
@@ -0,0 +1,127 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/*
+ * Loop invariant code motion
+ * an instruction is invariant if none of its operands is defined in the loop (after hoisting the
+ * invariant ones), pure instructions are hoisted to the preheader, inner loops first
+ * a load is hoisted only if nothing in the loop may write its location (AliasAnalyzer) and it cannot
+ * fault earlier than before: its address is a global, or its block is executed whenever the loop exits
+ * calls are hoisted by their mod/ref summaries (ModRefAnalyzer)
+ */
+
+public class LICM {
+  IRProgram program;
+  IRFunction curFunc;
+
+  AliasAnalyzer alias;
+  HashSet<IRRegister> definedInLoop = new HashSet<>();
+  ArrayList<IRBasicBlock> exiting = new ArrayList<>();
+  ArrayList<IRInst> writers = new ArrayList<>();
+
+  public LICM(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    new LoopAnalyzer(program).workOnFunc(func);
+    alias = new AliasAnalyzer(program, func);
+    for (var loop : func.loops)
+      if (loop.preheader != null)
+        hoist(loop);
+  }
+
+  boolean mayWriteMemory(IRInst inst) {
+    return inst instanceof IRStoreInst
+        || inst instanceof IRCallInst call && IREffect.writesMemory(program.effectsOf(call.funcName));
+  }
+
+  void hoist(IRLoop loop) {
+    definedInLoop.clear();
+    exiting.clear();
+    writers.clear();
+    for (var block : loop.blocks) {
+      for (var inst : block.insts) {
+        if (inst.getDef() != null)
+          definedInLoop.add(inst.getDef());
+        if (mayWriteMemory(inst))
+          writers.add(inst);
+      }
+      for (var succ : block.succs)
+        if (!loop.contains(succ)) {
+          exiting.add(block);
+          break;
+        }
+    }
+    visitBlock(loop, loop.header, !writers.isEmpty());
+  }
+
+  // the blocks of the loop in dominator tree order, so operands are visited before their users
+  void visitBlock(IRLoop loop, IRBasicBlock block, boolean writesMemory) {
+    var iter = block.insts.iterator();
+    while (iter.hasNext()) {
+      IRInst inst = iter.next();
+      if (!canHoist(inst, writesMemory) || !isInvariant(inst))
+        continue;
+      iter.remove();
+      inst.parentBlock = loop.preheader;
+      loop.preheader.insts.add(inst);
+      definedInLoop.remove(inst.getDef());
+    }
+    for (var child : block.domChildren)
+      if (loop.contains(child))
+        visitBlock(loop, child, writesMemory);
+  }
+
+  boolean isInvariant(IRInst inst) {
+    for (var use : inst.getUse())
+      if (use instanceof IRRegister reg && definedInLoop.contains(reg))
+        return false;
+    return true;
+  }
+
+  boolean canHoist(IRInst inst, boolean writesMemory) {
+    if (inst instanceof IRCalcInst || inst instanceof IRIcmpInst || inst instanceof IRCastInst
+        || inst instanceof IRGetElementPtrInst)
+      return true;
+    if (inst instanceof IRLoadInst load && !isClobbered(load))
+      return load.srcAddr instanceof IRGlobalVar || executedOnExit(inst.parentBlock);
+    // a call that reads no memory terminates and cannot fault, one that reads memory is hoisted like a load
+    if (inst instanceof IRCallInst call && call.callReg != null) {
+      int effects = program.effectsOf(call.funcName);
+      if (IREffect.readNone(effects))
+        return true;
+      if (IREffect.readOnly(effects) && !writesMemory)
+        return executedOnExit(inst.parentBlock);
+    }
+    return false;
+  }
+
+  boolean isClobbered(IRLoadInst load) {
+    IRMemoryLocation loc = alias.locationOf(load);
+    for (var writer : writers)
+      if (alias.mayWrite(writer, loc))
+        return true;
+    return false;
+  }
+
+  boolean executedOnExit(IRBasicBlock block) {
+    if (exiting.isEmpty())
+      return false;
+    for (var exit : exiting)
+      if (!LoopAnalyzer.dominates(block, exit))
+        return false;
+    return true;
+  }
+}
@@ -0,0 +1,102 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Redundant load elimination and store to load forwarding on memory SSA
+ * a load whose clobber is a store to the same location takes the stored value, a load with the same
+ * clobber and the same location as a load that dominates it takes the value of that load
+ */
+
+public class LoadElimination {
+  IRProgram program;
+  IRFunction curFunc;
+  MemorySSABuilder memorySSA;
+
+  // the loads available in the current block by their clobber, scoped by the dominator tree
+  HashMap<IRMemoryAccess, ArrayList<IRLoadInst>> available = new HashMap<>();
+  HashMap<IREntity, IREntity> replace = new HashMap<>();
+
+  public LoadElimination(IRProgram program) {
+    this.program = program;
+    memorySSA = new MemorySSABuilder(program);
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    available.clear();
+    replace.clear();
+    memorySSA.workOnFunc(func);
+    visitBlock(func.entryBlock);
+    if (replace.isEmpty())
+      return;
+    for (var block : func.blocks) {
+      block.insts.removeIf(inst -> inst.isDeleted);
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, resolve(use));
+      for (var use : block.terminalInst.getUse())
+        if (replace.containsKey(use))
+          block.terminalInst.replaceUse(use, resolve(use));
+    }
+  }
+
+  IREntity resolve(IREntity val) {
+    while (replace.containsKey(val))
+      val = replace.get(val);
+    return val;
+  }
+
+  void visitBlock(IRBasicBlock block) {
+    ArrayList<IRLoadInst> added = new ArrayList<>();
+    ArrayList<IRMemoryAccess> addedAt = new ArrayList<>();
+    for (var inst : block.insts) {
+      if (!(inst instanceof IRLoadInst load))
+        continue;
+      IRMemoryLocation loc = memorySSA.alias.locationOf(load);
+      IRMemoryAccess clobber = memorySSA.clobber(memorySSA.accessOf.get(load).defining, loc);
+      IREntity value = forwarded(clobber, load, loc);
+      if (value == null) {
+        var list = available.computeIfAbsent(clobber, k -> new ArrayList<>());
+        for (var prev : list)
+          if (prev.type.toString().equals(load.type.toString())
+              && memorySSA.alias.mustAlias(memorySSA.alias.locationOf(prev), loc)) {
+            value = prev.destReg;
+            break;
+          }
+        if (value == null) {
+          list.add(load);
+          added.add(load);
+          addedAt.add(clobber);
+        }
+      }
+      if (value != null) {
+        load.isDeleted = true;
+        replace.put(load.destReg, value);
+      }
+    }
+    for (var child : block.domChildren)
+      visitBlock(child);
+    for (int i = 0; i < added.size(); ++i)
+      available.get(addedAt.get(i)).remove(added.get(i));
+  }
+
+  // the value of a store to the same location
+  // a parameter after the 8th is never in a register, its store only records the slot in the caller's frame
+  IREntity forwarded(IRMemoryAccess clobber, IRLoadInst load, IRMemoryLocation loc) {
+    if (clobber.kind != IRMemoryAccess.Kind.DEF || !(clobber.inst instanceof IRStoreInst store)
+        || store.param_idx >= 8 || !store.val.type.toString().equals(load.type.toString()))
+      return null;
+    return memorySSA.alias.mustAlias(memorySSA.alias.locationOf(store), loc) ? store.val : null;
+  }
+}
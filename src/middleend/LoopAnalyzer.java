@@ -0,0 +1,157 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/*
+ * Natural loops from the CFG
+ * a back edge is an edge whose target dominates its source, the loop of a header is the union of
+ * the blocks that reach one of its latches without passing through the header
+ * every loop gets a preheader: a block outside the loop whose only successor is the header
+ * and which is the only predecessor of the header from outside the loop
+ * reference: Appel, Modern Compiler Implementation, chapter 18.1
+ */
+
+public class LoopAnalyzer {
+  IRProgram program;
+  IRFunction curFunc;
+
+  public LoopAnalyzer(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  public static boolean dominates(IRBasicBlock a, IRBasicBlock b) {
+    while (b != a) {
+      if (b.idom == null || b.idom == b)
+        return false;
+      b = b.idom;
+    }
+    return true;
+  }
+
+  public void workOnFunc(IRFunction func) {
+    curFunc = func;
+    new DomTreeBuilder(program).workOnFunc(func);
+    func.loops.clear();
+    for (var block : func.blocks) {
+      block.loop = null;
+      block.loopDepth = 0;
+    }
+
+    HashMap<IRBasicBlock, IRLoop> loopOf = new HashMap<>();
+    ArrayList<IRLoop> loops = new ArrayList<>();
+    for (var block : func.blocks)
+      for (var succ : block.succs)
+        if (dominates(succ, block)) {
+          IRLoop loop = loopOf.get(succ);
+          if (loop == null) {
+            loop = new IRLoop(succ);
+            loopOf.put(succ, loop);
+            loops.add(loop);
+          }
+          if (!loop.latches.contains(block))
+            loop.latches.add(block);
+        }
+
+    for (var loop : loops) {
+      loop.blocks.add(loop.header);
+      LinkedList<IRBasicBlock> workList = new LinkedList<>();
+      for (var latch : loop.latches)
+        if (loop.blocks.add(latch))
+          workList.add(latch);
+      while (!workList.isEmpty())
+        for (var pred : workList.removeFirst().preds)
+          if (loop.blocks.add(pred))
+            workList.add(pred);
+    }
+
+    // nesting, the parent of a loop is the smallest loop containing its header
+    loops.sort((a, b) -> a.blocks.size() - b.blocks.size());
+    for (int i = 0; i < loops.size(); ++i)
+      for (int j = i + 1; j < loops.size(); ++j)
+        if (loops.get(j).contains(loops.get(i).header)) {
+          loops.get(i).parent = loops.get(j);
+          loops.get(j).children.add(loops.get(i));
+          break;
+        }
+    for (int i = loops.size() - 1; i >= 0; --i) {
+      IRLoop loop = loops.get(i);
+      loop.depth = loop.parent == null ? 1 : loop.parent.depth + 1;
+      for (var block : loop.blocks) {
+        // outer loops are visited first, so the innermost loop is written last
+        block.loop = loop;
+        block.loopDepth = loop.depth;
+      }
+    }
+    for (var loop : loops)
+      for (var block : loop.blocks)
+        for (var succ : block.succs)
+          if (!loop.contains(succ) && !loop.exits.contains(succ))
+            loop.exits.add(succ);
+    func.loops = loops;
+
+    boolean changed = false;
+    for (var loop : loops)
+      changed |= insertPreheader(loop);
+    if (changed)
+      new DomTreeBuilder(program).workOnFunc(func);
+  }
+
+  // returns whether a new block is created
+  boolean insertPreheader(IRLoop loop) {
+    IRBasicBlock header = loop.header;
+    ArrayList<IRBasicBlock> outside = new ArrayList<>();
+    for (var pred : header.preds)
+      if (!loop.contains(pred) && !outside.contains(pred))
+        outside.add(pred);
+    if (outside.isEmpty())
+      return false;
+    if (outside.size() == 1 && outside.get(0).succs.size() == 1) {
+      loop.preheader = outside.get(0);
+      return false;
+    }
+
+    IRBasicBlock preheader = new IRBasicBlock(curFunc, "preheader_", header, loop.depth - 1);
+    loop.preheader = preheader;
+    curFunc.blocks.add(curFunc.blocks.indexOf(header), preheader);
+    for (var pred : outside) {
+      pred.terminalInst.replaceBlock(header, preheader);
+      pred.succs.replaceAll(succ -> succ == header ? preheader : succ);
+      preheader.preds.add(pred);
+    }
+    header.preds.removeIf(pred -> outside.contains(pred));
+    header.preds.add(preheader);
+    preheader.succs.add(header);
+    for (IRLoop outer = loop.parent; outer != null; outer = outer.parent)
+      outer.blocks.add(preheader);
+    preheader.loop = loop.parent;
+
+    // the incoming values from outside the loop are merged in the preheader
+    for (var inst : header.insts) {
+      if (!(inst instanceof IRPhiInst phi))
+        break;
+      IRPhiInst merged = new IRPhiInst(preheader, phi.src, new IRRegister("", phi.dest.type));
+      for (int i = phi.values.size() - 1; i >= 0; --i)
+        if (outside.contains(phi.blocks.get(i))) {
+          merged.values.add(0, phi.values.remove(i));
+          merged.blocks.add(0, phi.blocks.remove(i));
+        }
+      if (outside.size() == 1) {
+        phi.add(merged.values.get(0), preheader);
+      } else {
+        preheader.insts.add(merged);
+        phi.add(merged.dest, preheader);
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,277 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Scalar promotion of memory locations in loops
+ * the loads and stores of a loop invariant address become an SSA value: it is loaded in the preheader,
+ * carried by phis through the loop and stored back at the exits if the loop writes it
+ * nothing else in the loop may read or write the location (AliasAnalyzer, mod/ref of the calls),
+ * the exits must only be reached from the loop, and the location must be safe to access even if the
+ * loop does not touch it: a global, a constant offset inside a malloc of constant size, this, the same
+ * location accessed before the loop, or an access executed in every iteration
+ * reference: LLVM LICM (promoteLoopAccessesToScalars)
+ */
+
+public class LoopScalarPromotion {
+  IRProgram program;
+  IRFunction curFunc;
+  AliasAnalyzer alias;
+
+  HashSet<IRRegister> definedInLoop = new HashSet<>();
+  ArrayList<IRInst> memInsts = new ArrayList<>();
+  ArrayList<IRBasicBlock> exiting = new ArrayList<>();
+  HashMap<IREntity, IREntity> replace = new HashMap<>();
+
+  public LoopScalarPromotion(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    replace.clear();
+    new LoopAnalyzer(program).workOnFunc(func);
+    alias = new AliasAnalyzer(program, func);
+    for (var loop : func.loops)
+      if (loop.preheader != null && hasDedicatedExits(loop))
+        promote(loop);
+    if (replace.isEmpty())
+      return;
+    for (var block : func.blocks) {
+      block.insts.removeIf(inst -> inst.isDeleted);
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, resolve(use));
+      for (var use : block.terminalInst.getUse())
+        if (replace.containsKey(use))
+          block.terminalInst.replaceUse(use, resolve(use));
+    }
+  }
+
+  IREntity resolve(IREntity val) {
+    while (replace.containsKey(val))
+      val = replace.get(val);
+    return val;
+  }
+
+  boolean hasDedicatedExits(IRLoop loop) {
+    for (var exit : loop.exits)
+      for (var pred : exit.preds)
+        if (!loop.contains(pred))
+          return false;
+    return true;
+  }
+
+  void promote(IRLoop loop) {
+    definedInLoop.clear();
+    memInsts.clear();
+    exiting.clear();
+    for (var block : loop.blocks) {
+      for (var inst : block.insts) {
+        if (inst.isDeleted)
+          continue;
+        if (inst.getDef() != null)
+          definedInLoop.add(inst.getDef());
+        if (inst instanceof IRLoadInst || inst instanceof IRStoreInst || inst instanceof IRCallInst)
+          memInsts.add(inst);
+      }
+      for (var succ : block.succs)
+        if (!loop.contains(succ)) {
+          exiting.add(block);
+          break;
+        }
+    }
+
+    // the accesses of an invariant address, grouped by location
+    ArrayList<ArrayList<IRInst>> groups = new ArrayList<>();
+    for (var inst : memInsts) {
+      IREntity addr = addressOf(inst);
+      if (addr == null || addr instanceof IRRegister reg && definedInLoop.contains(reg))
+        continue;
+      IRMemoryLocation loc = alias.locationOf(inst);
+      ArrayList<IRInst> group = null;
+      for (var other : groups)
+        if (alias.mustAlias(alias.locationOf(other.get(0)), loc)) {
+          group = other;
+          break;
+        }
+      if (group == null)
+        groups.add(group = new ArrayList<>());
+      group.add(inst);
+    }
+    for (var group : groups)
+      if (canPromote(loop, group))
+        rewrite(loop, group);
+  }
+
+  IREntity addressOf(IRInst inst) {
+    if (inst instanceof IRLoadInst load)
+      return load.srcAddr;
+    if (inst instanceof IRStoreInst store && store.param_idx == -1)
+      return store.destAddr;
+    return null;
+  }
+
+  IRType valueType(IRInst inst) {
+    return inst instanceof IRLoadInst load ? load.type : ((IRStoreInst) inst).val.type;
+  }
+
+  boolean canPromote(IRLoop loop, ArrayList<IRInst> group) {
+    IRMemoryLocation loc = alias.locationOf(group.get(0));
+    String type = valueType(group.get(0)).toString();
+    for (var inst : group)
+      if (!valueType(inst).toString().equals(type))
+        return false;
+    for (var inst : memInsts)
+      if (!group.contains(inst) && (alias.mayRead(inst, loc) || alias.mayWrite(inst, loc)))
+        return false;
+    return isSafeToAccess(loop, group, loc);
+  }
+
+  boolean isSafeToAccess(IRLoop loop, ArrayList<IRInst> group, IRMemoryLocation loc) {
+    if (loc.root instanceof IRGlobalVar && loc.indices.isEmpty() && loc.offset == 0 || isInsideMalloc(loc))
+      return true;
+    if (!curFunc.params.isEmpty() && loc.root == curFunc.params.get(0) && "this".equals(curFunc.params.get(0).name))
+      return true;
+    for (var inst : group)
+      if (!exiting.isEmpty() && exiting.stream().allMatch(block -> LoopAnalyzer.dominates(inst.parentBlock, block)))
+        return true;
+    // the object is accessed on every path to the loop
+    for (var block = loop.preheader; block != null; block = block.idom == block ? null : block.idom)
+      for (var inst : block.insts)
+        if ((inst instanceof IRLoadInst || inst instanceof IRStoreInst) && addressOf(inst) != null) {
+          IRMemoryLocation other = alias.locationOf(inst);
+          if (other.root == loc.root && other.sameIndices(loc) && other.offset == loc.offset && other.size == loc.size)
+            return true;
+        }
+    return false;
+  }
+
+  boolean isInsideMalloc(IRMemoryLocation loc) {
+    return alias.isMalloc(loc.root) && loc.indices.isEmpty()
+        && alias.defs.get(loc.root) instanceof IRCallInst call && call.args.get(0) instanceof IRIntConst bytes
+        && loc.offset >= 0 && loc.offset + loc.size <= bytes.val;
+  }
+
+  void rewrite(IRLoop loop, ArrayList<IRInst> group) {
+    IRInst first = group.get(0);
+    IREntity addr = addressOf(first);
+    IRType type = valueType(first);
+    String typeTag = first instanceof IRLoadInst load ? load.typeTag : ((IRStoreInst) first).typeTag;
+    boolean hasStore = group.stream().anyMatch(inst -> inst instanceof IRStoreInst);
+    HashSet<IRInst> members = new HashSet<>(group);
+
+    IRRegister init = new IRRegister("", type);
+    IRLoadInst initLoad = new IRLoadInst(loop.preheader, init, addr);
+    initLoad.typeTag = typeTag;
+    loop.preheader.insts.add(initLoad);
+
+    // a phi at the header and at every join inside the loop, the other blocks take the value of their pred
+    HashMap<IRBasicBlock, IRPhiInst> phis = new HashMap<>();
+    HashMap<IRBasicBlock, IREntity> out = new HashMap<>();
+    ArrayList<IRPhiInst> newPhis = new ArrayList<>();
+    for (var block : reversePostOrder(loop)) {
+      IREntity cur;
+      if (block == loop.header || block.preds.size() > 1) {
+        IRPhiInst phi = new IRPhiInst(block, null, new IRRegister("", type));
+        phis.put(block, phi);
+        newPhis.add(phi);
+        cur = phi.dest;
+      } else
+        cur = out.get(block.preds.get(0));
+      for (var inst : block.insts)
+        if (members.contains(inst)) {
+          inst.isDeleted = true;
+          if (inst instanceof IRLoadInst load)
+            replace.put(load.destReg, cur);
+          else
+            cur = ((IRStoreInst) inst).val;
+        }
+      out.put(block, cur);
+    }
+    for (var entry : phis.entrySet()) {
+      IRBasicBlock block = entry.getKey();
+      for (var pred : block.preds)
+        entry.getValue().add(loop.contains(pred) ? out.get(pred) : init, pred);
+      block.insts.addFirst(entry.getValue());
+    }
+
+    if (hasStore)
+      for (var exit : loop.exits) {
+        IREntity val;
+        if (exit.preds.size() > 1) {
+          IRPhiInst phi = new IRPhiInst(exit, null, new IRRegister("", type));
+          for (var pred : exit.preds)
+            phi.add(out.get(pred), pred);
+          newPhis.add(phi);
+          exit.insts.addFirst(phi);
+          val = phi.dest;
+        } else
+          val = out.get(exit.preds.get(0));
+        int index = 0;
+        while (index < exit.insts.size() && exit.insts.get(index) instanceof IRPhiInst)
+          ++index;
+        IRStoreInst store = new IRStoreInst(exit, val, (IRRegister) addr);
+        store.typeTag = typeTag;
+        exit.insts.add(index, store);
+      }
+    simplifyPhis(newPhis);
+  }
+
+  ArrayList<IRBasicBlock> reversePostOrder(IRLoop loop) {
+    ArrayList<IRBasicBlock> order = new ArrayList<>();
+    visit(loop, loop.header, new HashSet<>(), order);
+    Collections.reverse(order);
+    return order;
+  }
+
+  void visit(IRLoop loop, IRBasicBlock block, HashSet<IRBasicBlock> visited, ArrayList<IRBasicBlock> order) {
+    visited.add(block);
+    for (var succ : block.succs)
+      if (loop.contains(succ) && !visited.contains(succ))
+        visit(loop, succ, visited, order);
+    order.add(block);
+  }
+
+  // a phi whose values are one value or itself is that value
+  void simplifyPhis(ArrayList<IRPhiInst> newPhis) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (var phi : newPhis) {
+        if (phi.isDeleted)
+          continue;
+        IREntity val = null;
+        boolean trivial = true;
+        for (var value : phi.values) {
+          IREntity v = resolve(value);
+          if (v == phi.dest || v == val)
+            continue;
+          if (val != null) {
+            trivial = false;
+            break;
+          }
+          val = v;
+        }
+        if (trivial && val != null) {
+          phi.isDeleted = true;
+          replace.put(phi.dest, val);
+          changed = true;
+        }
+      }
+    }
+  }
+}
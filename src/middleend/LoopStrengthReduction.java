@@ -0,0 +1,282 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.type.*;
+import IR.entity.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/*
+ * Loop strength reduction
+ * an address getelementptr base, idx with an invariant base and an affine idx = coef * i + inv + offset
+ * becomes a pointer induction variable p = phi [base + start, preheader], [p + step, latch]
+ * afterwards a basic induction variable only used by its increment and the exit test is replaced by
+ * one of its pointers (linear function test replacement), as long as the end pointer cannot wrap around
+ * reference: Cooper, Simpson & Vick, Operator Strength Reduction
+ */
+
+public class LoopStrengthReduction implements BuiltinElements {
+  IRProgram program;
+  IRFunction curFunc;
+
+  HashMap<IRRegister, ArrayList<IRInst>> users = new HashMap<>();
+  HashMap<IREntity, IREntity> replace = new HashMap<>();
+  // the pointers compared by a replaced test stay within this many bytes of the base
+  static final int maxTestBytes = 1 << 16;
+
+  public LoopStrengthReduction(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    new LoopAnalyzer(program).workOnFunc(func);
+    for (var loop : func.loops)
+      if (loop.preheader != null && loop.latches.size() == 1)
+        reduce(loop);
+  }
+
+  void collectUsers() {
+    users.clear();
+    for (var block : curFunc.blocks) {
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (use instanceof IRRegister reg)
+            users.computeIfAbsent(reg, k -> new ArrayList<>()).add(inst);
+      for (var use : block.terminalInst.getUse())
+        if (use instanceof IRRegister reg)
+          users.computeIfAbsent(reg, k -> new ArrayList<>()).add(block.terminalInst);
+    }
+  }
+
+  // a pointer induction variable, the value of base + idx in the current iteration
+  static class PointerIV {
+    IRGetElementPtrInst gep;
+    InductionVarAnalyzer.Affine idx;
+    IRPhiInst phi;
+  }
+
+  void reduce(IRLoop loop) {
+    var analyzer = new InductionVarAnalyzer(loop);
+    analyzer.work();
+    if (analyzer.basicIVs.isEmpty())
+      return;
+    collectUsers();
+    replace.clear();
+    IRBasicBlock latch = loop.latches.get(0);
+
+    HashMap<List<Object>, PointerIV> pointers = new HashMap<>();
+    ArrayList<PointerIV> created = new ArrayList<>();
+    for (var block : loop.blocks) {
+      if (block.loop != loop)
+        continue;
+      for (var inst : new ArrayList<>(block.insts)) {
+        if (!(inst instanceof IRGetElementPtrInst gep) || gep.indexList.size() != 1
+            || gep.pToType instanceof IRStructType || !analyzer.isInvariant(gep.ptr)
+            || !(gep.indexList.get(0) instanceof IRRegister idxReg) || !analyzer.affine.containsKey(idxReg)
+            || !usedOnlyIn(gep.res, loop))
+          continue;
+        var idx = analyzer.affine.get(idxReg);
+        if (idx.step() == 0)
+          continue;
+        var key = Arrays.asList(gep.ptr, gep.pToType.toString(), idx.iv, idx.coef, idx.inv, idx.offset);
+        PointerIV ptr = pointers.get(key);
+        if (ptr == null) {
+          ptr = new PointerIV();
+          ptr.gep = gep;
+          ptr.idx = idx;
+          ptr.phi = new IRPhiInst(loop.header, null, new IRRegister("", gep.res.type));
+          IREntity start = startValue(loop.preheader, idx, idx.iv.init);
+          IREntity init = start == irIntConst0 ? gep.ptr : emitGep(loop.preheader, gep.pToType, gep.ptr, start);
+          ptr.phi.add(init, loop.preheader);
+          ptr.phi.add(emitGep(latch, gep.pToType, ptr.phi.dest, new IRIntConst(idx.step())), latch);
+          pointers.put(key, ptr);
+          created.add(ptr);
+        }
+        gep.isDeleted = true;
+        replace.put(gep.res, ptr.phi.dest);
+      }
+    }
+    if (created.isEmpty())
+      return;
+    for (var ptr : created)
+      loop.header.insts.addFirst(ptr.phi);
+    for (var block : loop.blocks)
+      block.insts.removeIf(inst -> inst.isDeleted);
+    applyReplace();
+
+    // the old index computations are dead now
+    new DeadCodeEliminator(program).workOnFunc(curFunc);
+    collectUsers();
+    for (var iv : analyzer.basicIVs.values())
+      replaceTest(loop, iv, created);
+  }
+
+  boolean usedOnlyIn(IRRegister reg, IRLoop loop) {
+    for (var user : users.getOrDefault(reg, new ArrayList<>()))
+      if (!loop.contains(user.parentBlock))
+        return false;
+    return true;
+  }
+
+  // coef * init + inv + offset, computed at the end of the preheader
+  IREntity startValue(IRBasicBlock preheader, InductionVarAnalyzer.Affine idx, IREntity init) {
+    IREntity val = emitCalc(preheader, "mul", init, new IRIntConst(idx.coef));
+    if (idx.inv != null)
+      val = emitCalc(preheader, "add", val, idx.inv);
+    return emitCalc(preheader, "add", val, new IRIntConst(idx.offset));
+  }
+
+  IREntity emitCalc(IRBasicBlock block, String op, IREntity lhs, IREntity rhs) {
+    if (lhs instanceof IRIntConst l && rhs instanceof IRIntConst r) {
+      int val = IRCalcInst.calc(op, l.val, r.val);
+      return val == 0 ? irIntConst0 : new IRIntConst(val);
+    }
+    if (rhs instanceof IRIntConst r && (r.val == 0 && op.equals("add") || r.val == 1 && op.equals("mul")))
+      return lhs;
+    if (lhs instanceof IRIntConst l && l.val == 0 && op.equals("add"))
+      return rhs;
+    IRRegister res = new IRRegister("", irIntType);
+    block.insts.add(new IRCalcInst(block, irIntType, res, lhs, rhs, op));
+    return res;
+  }
+
+  IRRegister emitGep(IRBasicBlock block, IRType pToType, IREntity ptr, IREntity idx) {
+    IRRegister res = new IRRegister("", ptr.type);
+    block.insts.add(new IRGetElementPtrInst(block, ptr, res, idx));
+    return res;
+  }
+
+  IREntity resolve(IREntity val) {
+    while (replace.containsKey(val))
+      val = replace.get(val);
+    return val;
+  }
+
+  void applyReplace() {
+    for (var block : curFunc.blocks) {
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, resolve(use));
+      for (var use : block.terminalInst.getUse())
+        if (replace.containsKey(use))
+          block.terminalInst.replaceUse(use, resolve(use));
+    }
+  }
+
+  // the users of reg, ignoring the instructions in ignore
+  ArrayList<IRInst> usersExcept(IRRegister reg, HashSet<IRInst> ignore) {
+    ArrayList<IRInst> ret = new ArrayList<>();
+    for (var user : users.getOrDefault(reg, new ArrayList<>()))
+      if (!ignore.contains(user) && !ret.contains(user))
+        ret.add(user);
+    return ret;
+  }
+
+  // i op n -> p op base + (coef * n + inv + offset), then i is dead
+  void replaceTest(IRLoop loop, InductionVarAnalyzer.BasicIV iv, ArrayList<PointerIV> created) {
+    PointerIV ptr = null;
+    for (var candidate : created)
+      if (candidate.idx.iv == iv && candidate.idx.coef > 0 && iv.step > 0) {
+        ptr = candidate;
+        break;
+      }
+    if (ptr == null)
+      return;
+    HashSet<IRInst> cycle = new HashSet<>();
+    cycle.add(iv.phi);
+    cycle.add(iv.next);
+    var ivUsers = usersExcept(iv.phi.dest, cycle);
+    if (!usersExcept(iv.next.res, cycle).isEmpty() || ivUsers.size() != 1
+        || !(ivUsers.get(0) instanceof IRIcmpInst cmp) || !loop.contains(cmp.parentBlock))
+      return;
+    boolean ivOnLeft = cmp.lhs == iv.phi.dest;
+    IREntity bound = ivOnLeft ? cmp.rhs : cmp.lhs;
+    if (bound == iv.phi.dest || !isOutside(bound, loop) || !cannotWrap(ptr, iv, bound))
+      return;
+    var idx = ptr.idx;
+    IREntity end = emitGep(loop.preheader, ptr.gep.pToType, ptr.gep.ptr, startValue(loop.preheader, idx, bound));
+    if (ivOnLeft) {
+      cmp.lhs = ptr.phi.dest;
+      cmp.rhs = end;
+    } else {
+      cmp.lhs = end;
+      cmp.rhs = ptr.phi.dest;
+    }
+    cmp.type = ptr.phi.dest.type;
+    iv.phi.parentBlock.insts.remove(iv.phi);
+    iv.next.parentBlock.insts.remove(iv.next);
+  }
+
+  // base + idx * size can't wrap around for the start, the step and the end of the loop
+  // the end is either a small constant or the size of the array itself
+  boolean cannotWrap(PointerIV ptr, InductionVarAnalyzer.BasicIV iv, IREntity bound) {
+    var idx = ptr.idx;
+    int size = AliasAnalyzer.sizeOf(ptr.gep.pToType);
+    if (idx.inv != null || !(iv.init instanceof IRIntConst init)
+        || !isNear((long) idx.coef * init.val + idx.offset, size) || !isNear((long) idx.coef * iv.step, size))
+      return false;
+    if (bound instanceof IRIntConst n)
+      return isNear((long) idx.coef * n.val + idx.offset, size);
+    return idx.coef == 1 && idx.offset <= 0 && isSizeOf(bound, ptr.gep.ptr);
+  }
+
+  boolean isNear(long idx, int size) {
+    return Math.abs(idx * size) <= maxTestBytes;
+  }
+
+  // val is the size in front of the array, loaded from there or stored there when the array was created
+  boolean isSizeOf(IREntity val, IREntity array) {
+    array = stripCast(array);
+    if (defOf(val) instanceof IRLoadInst load && defOf(load.srcAddr) instanceof IRGetElementPtrInst gep
+        && isConstIndex(gep, -1) && stripCast(gep.ptr) == array)
+      return true;
+    if (!(defOf(array) instanceof IRGetElementPtrInst gep) || !isConstIndex(gep, 1))
+      return false;
+    for (var block : curFunc.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRStoreInst store && store.destAddr == gep.ptr && store.val == val)
+          return true;
+    return false;
+  }
+
+  boolean isConstIndex(IRGetElementPtrInst gep, int val) {
+    return gep.indexList.size() == 1 && gep.indexList.get(0) instanceof IRIntConst c && c.val == val;
+  }
+
+  IREntity stripCast(IREntity val) {
+    while (defOf(val) instanceof IRBitcastInst cast)
+      val = cast.val;
+    return val;
+  }
+
+  IRInst defOf(IREntity val) {
+    if (val instanceof IRRegister reg)
+      for (var block : curFunc.blocks)
+        for (var inst : block.insts)
+          if (inst.getDef() == reg)
+            return inst;
+    return null;
+  }
+
+  boolean isOutside(IREntity val, IRLoop loop) {
+    if (!(val instanceof IRRegister reg))
+      return true;
+    for (var block : loop.blocks)
+      for (var inst : block.insts)
+        if (inst.getDef() == reg)
+          return false;
+    return true;
+  }
+}
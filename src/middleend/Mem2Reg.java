@@ -5,6 +5,7 @@ import IR.inst.*;
 import IR.type.*;
 import IR.entity.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -16,6 +17,8 @@ public class Mem2Reg {
   LinkedHashSet<IRRegister> promoteAllocas = new LinkedHashSet<>();
   HashMap<IRRegister, HashSet<IRBasicBlock>> allocaDefs = new HashMap<>();
   HashMap<IRRegister, IREntity> reachingDef = new HashMap<>();
+  // the value each promoted load (and each trivial phi) stands for, applied to the whole function
+  HashMap<IREntity, IREntity> replace = new HashMap<>();
 
   public Mem2Reg(IRProgram program) {
     this.program = program;
@@ -28,38 +31,46 @@ public class Mem2Reg {
 
   void workOnFunc(IRFunction func) {
     curFunc = func;
+    // the phis of an earlier run are ordinary instructions by now
+    func.blocks.forEach(block -> block.phiInsts.clear());
     promoteCollect();
     for (var alloca : promoteAllocas)
       promoteMem2Reg(alloca);
     reachingDef.clear();
+    replace.clear();
     renameVar(func.entryBlock);
     simplifyPhi(func.entryBlock);
+    replaceUses();
   }
 
   void promoteCollect() {
     promoteAllocas.clear();
+    allocaDefs.clear();
     for (var inst : curFunc.entryBlock.insts) {
-      if (!(inst instanceof IRAllocaInst))
+      if (!(inst instanceof IRAllocaInst alloca))
         break;
-      IRRegister reg = ((IRAllocaInst) inst).allocaReg;
-      allocaDefs.put(reg, new HashSet<>());
-      if (isAllocaPromoteable((IRAllocaInst) inst))
-        promoteAllocas.add(reg);
+      allocaDefs.put(alloca.allocaReg, new HashSet<>());
+      if (alloca.param_idx < 8)
+        promoteAllocas.add(alloca.allocaReg);
     }
-  }
-
-  boolean isAllocaPromoteable(IRAllocaInst inst) {
-    if (inst.param_idx >= 8)
-      return false;
-    IRRegister reg = inst.allocaReg;
+    // an alloca is promotable if it is only used as the address of loads and stores
     for (var block : curFunc.blocks)
       for (var user : block.insts) {
-        if (!(user instanceof IRLoadInst) && !(user instanceof IRStoreInst) && user.getUse().contains(reg))
-          return false;
-        if (user instanceof IRStoreInst storeInst && storeInst.destAddr == reg)
-          allocaDefs.get(reg).add(block);
+        if (user instanceof IRLoadInst)
+          continue;
+        if (user instanceof IRStoreInst storeInst) {
+          if (allocaDefs.containsKey(storeInst.destAddr))
+            allocaDefs.get(storeInst.destAddr).add(block);
+          if (storeInst.val instanceof IRRegister reg)
+            promoteAllocas.remove(reg);
+          continue;
+        }
+        if (user instanceof IRAllocaInst)
+          continue;
+        for (var use : user.getUse())
+          if (use instanceof IRRegister reg)
+            promoteAllocas.remove(reg);
       }
-    return true;
   }
 
   // reference : SSA Book
@@ -82,26 +93,30 @@ public class Mem2Reg {
     }
   }
 
+  IREntity resolve(IREntity val) {
+    while (val != null && replace.containsKey(val))
+      val = replace.get(val);
+    return val;
+  }
+
+  // the reaching definitions changed in a block are undone when leaving it
   void renameVar(IRBasicBlock block) {
-    var oldReachingDef = new HashMap<>(reachingDef);
-    LinkedList<IRInst> newInsts = new LinkedList<>();
+    ArrayList<IRRegister> changedAddr = new ArrayList<>();
+    ArrayList<IREntity> oldDef = new ArrayList<>();
     for (var inst : block.phiInsts) {
-      reachingDef.put(inst.src, inst.dest);
-      // System.out.println("reachingDef of " + inst.src + " changed to " + inst.dest);
+      changedAddr.add(inst.src);
+      oldDef.add(reachingDef.put(inst.src, inst.dest));
     }
-    for (int i = 0; i < block.insts.size(); ++i) {
-      var inst = block.insts.get(i);
+    LinkedList<IRInst> newInsts = new LinkedList<>();
+    for (var inst : block.insts) {
       if (inst instanceof IRAllocaInst alloca && promoteAllocas.contains(alloca.allocaReg))
         continue;
       if (inst instanceof IRLoadInst ld && promoteAllocas.contains(ld.srcAddr)) {
-        // System.out.println(ld + ", " + reachingDef.get(ld.srcAddr));
-        for (int j = i + 1; j < block.insts.size(); ++j)
-          block.insts.get(j).replaceUse(ld.destReg, reachingDef.get(ld.srcAddr));
-        if (block.terminalInst != null)
-          block.terminalInst.replaceUse(ld.destReg, reachingDef.get(ld.srcAddr));
+        IREntity val = reachingDef.get(ld.srcAddr);
+        replace.put(ld.destReg, val == null ? ld.destReg.type.defaultValue() : val);
       } else if (inst instanceof IRStoreInst st && promoteAllocas.contains(st.destAddr)) {
-        // System.out.println(st.destAddr + " " + st.val);
-        reachingDef.put(st.destAddr, st.val);
+        changedAddr.add(st.destAddr);
+        oldDef.add(reachingDef.put(st.destAddr, resolve(st.val)));
       } else {
         newInsts.add(inst);
       }
@@ -109,24 +124,28 @@ public class Mem2Reg {
     block.insts = newInsts;
     // add edge
     block.succs.forEach(succ -> {
-      succ.phiInsts.forEach(phi -> phi.add(reachingDef.get(phi.src), block));
+      succ.phiInsts.forEach(phi -> phi.add(resolve(reachingDef.get(phi.src)), block));
     });
 
     block.domChildren.forEach(child -> renameVar(child));
-    reachingDef = oldReachingDef;
+    for (int i = changedAddr.size() - 1; i >= 0; --i)
+      if (oldDef.get(i) == null)
+        reachingDef.remove(changedAddr.get(i));
+      else
+        reachingDef.put(changedAddr.get(i), oldDef.get(i));
   }
 
   void simplifyPhi(IRBasicBlock block) {
     block.phiInsts.forEach(phi -> {
-      IREntity val = phi.values.get(0);
+      IREntity val = resolve(phi.values.get(0));
       boolean flag = true;
       for (int j = 1; j < phi.values.size(); ++j)
-        if (phi.values.get(j) != val) {
+        if (resolve(phi.values.get(j)) != val) {
           flag = false;
           break;
         }
       if (flag) {
-        block.insts.forEach(inst -> inst.replaceUse(phi.dest, val));
+        replace.put(phi.dest, val);
         phi.isDeleted = true;
       }
     });
@@ -137,4 +156,19 @@ public class Mem2Reg {
     }
     block.domChildren.forEach(child -> simplifyPhi(child));
   }
+
+  void replaceUses() {
+    if (replace.isEmpty())
+      return;
+    for (var block : curFunc.blocks) {
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, resolve(use));
+      if (block.terminalInst != null)
+        for (var use : block.terminalInst.getUse())
+          if (replace.containsKey(use))
+            block.terminalInst.replaceUse(use, resolve(use));
+    }
+  }
 }
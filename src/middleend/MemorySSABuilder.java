@@ -0,0 +1,133 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Memory SSA: the whole memory is one variable, stores and calls that may write memory define it,
+ * loads and calls that only read memory use it (IR.IRMemoryAccess)
+ * phis are placed on the iterated dominance frontier of the defining blocks, as in Mem2Reg
+ * the walker skips the definitions that cannot write a location to find the one that clobbers it
+ * reference: Novillo, Memory SSA - A Unified Approach for Sparsely Representing Memory Operations
+ */
+
+public class MemorySSABuilder {
+  // the phis visited by one walk, beyond it the phi itself is taken as the clobber
+  static final int WALK_LIMIT = 256;
+
+  IRProgram program;
+  IRFunction curFunc;
+
+  public AliasAnalyzer alias;
+  public HashMap<IRInst, IRMemoryAccess> accessOf = new HashMap<>();
+  public HashMap<IRBasicBlock, IRMemoryAccess> phiOf = new HashMap<>();
+  public IRMemoryAccess liveOnEntry;
+
+  public MemorySSABuilder(IRProgram program) {
+    this.program = program;
+  }
+
+  public void workOnFunc(IRFunction func) {
+    curFunc = func;
+    accessOf.clear();
+    phiOf.clear();
+    new DomTreeBuilder(program).workOnFunc(func);
+    alias = new AliasAnalyzer(program, func);
+    liveOnEntry = new IRMemoryAccess(IRMemoryAccess.Kind.LIVE_ON_ENTRY, func.entryBlock, null);
+
+    LinkedList<IRBasicBlock> workList = new LinkedList<>();
+    for (var block : func.blocks)
+      for (var inst : block.insts) {
+        var kind = kindOf(inst);
+        if (kind == null)
+          continue;
+        accessOf.put(inst, new IRMemoryAccess(kind, block, inst));
+        if (kind == IRMemoryAccess.Kind.DEF && !workList.contains(block))
+          workList.add(block);
+      }
+    while (!workList.isEmpty()) {
+      IRBasicBlock block = workList.removeFirst();
+      for (var frontier : block.domFrontier)
+        if (!phiOf.containsKey(frontier)) {
+          phiOf.put(frontier, new IRMemoryAccess(IRMemoryAccess.Kind.PHI, frontier, null));
+          workList.add(frontier);
+        }
+    }
+    rename(func.entryBlock, liveOnEntry);
+  }
+
+  IRMemoryAccess.Kind kindOf(IRInst inst) {
+    if (inst instanceof IRLoadInst)
+      return IRMemoryAccess.Kind.USE;
+    if (inst instanceof IRStoreInst)
+      return IRMemoryAccess.Kind.DEF;
+    if (inst instanceof IRCallInst call) {
+      int effects = program.effectsOf(call.funcName);
+      if (IREffect.writesMemory(effects))
+        return IRMemoryAccess.Kind.DEF;
+      if ((effects & (IREffect.READ_GLOBAL | IREffect.READ_MEMORY)) != 0)
+        return IRMemoryAccess.Kind.USE;
+    }
+    return null;
+  }
+
+  void rename(IRBasicBlock block, IRMemoryAccess cur) {
+    if (phiOf.containsKey(block))
+      cur = phiOf.get(block);
+    for (var inst : block.insts) {
+      var access = accessOf.get(inst);
+      if (access == null)
+        continue;
+      access.setDefining(cur);
+      if (access.kind == IRMemoryAccess.Kind.DEF)
+        cur = access;
+    }
+    for (var succ : block.succs)
+      if (phiOf.containsKey(succ))
+        phiOf.get(succ).addIncoming(cur, block);
+    for (var child : block.domChildren)
+      rename(child, cur);
+  }
+
+  // ------------------ walker ------------------
+
+  int steps;
+  HashSet<IRMemoryAccess> visiting = new HashSet<>();
+
+  // the nearest access at or above start that may write the location, a phi if the paths disagree
+  public IRMemoryAccess clobber(IRMemoryAccess start, IRMemoryLocation loc) {
+    steps = 0;
+    visiting.clear();
+    return walk(start, loc);
+  }
+
+  // null if the walk only comes back to a phi being visited
+  IRMemoryAccess walk(IRMemoryAccess access, IRMemoryLocation loc) {
+    while (access.kind == IRMemoryAccess.Kind.DEF && !alias.mayWrite(access.inst, loc))
+      access = access.defining;
+    if (access.kind != IRMemoryAccess.Kind.PHI)
+      return access;
+    if (visiting.contains(access))
+      return null;
+    if (++steps > WALK_LIMIT)
+      return access;
+    visiting.add(access);
+    IRMemoryAccess ret = null;
+    for (var incoming : access.incoming) {
+      var clobber = walk(incoming, loc);
+      if (clobber == null || clobber == ret)
+        continue;
+      if (ret != null) {
+        ret = access;
+        break;
+      }
+      ret = clobber;
+    }
+    visiting.remove(access);
+    return ret == null ? access : ret;
+  }
+}
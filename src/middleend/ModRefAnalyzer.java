@@ -0,0 +1,113 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Interprocedural mod/ref summaries, see IR.IREffect
+ * the effects of a function are those of its own instructions and of everything it calls, so the call
+ * graph is visited bottom-up by its strongly connected components (Tarjan's algorithm)
+ * the accesses to its own allocas are invisible to the caller, a loop or a recursion may not terminate
+ * the builtin functions have hand-written summaries (BuiltinElements.builtinEffects)
+ */
+
+public class ModRefAnalyzer {
+  IRProgram program;
+
+  HashMap<String, IRFunction> funcMap = new HashMap<>();
+  HashMap<IRFunction, ArrayList<IRFunction>> callees = new HashMap<>();
+  HashMap<IRFunction, Integer> localEffects = new HashMap<>();
+
+  public ModRefAnalyzer(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcEffects.clear();
+    for (var func : program.funcList)
+      funcMap.put(func.name, func);
+    for (var func : program.funcList)
+      localEffects.put(func, collect(func));
+    for (var func : program.funcList)
+      if (!dfn.containsKey(func))
+        tarjan(func);
+  }
+
+  // the effects of the instructions of the function and of the builtins it calls
+  int collect(IRFunction func) {
+    HashSet<IREntity> allocas = new HashSet<>();
+    for (var inst : func.entryBlock.insts)
+      if (inst instanceof IRAllocaInst alloca)
+        allocas.add(alloca.allocaReg);
+    ArrayList<IRFunction> list = new ArrayList<>();
+    int effects = 0;
+    new DomTreeBuilder(program).workOnFunc(func);
+    for (var block : func.blocks) {
+      for (var succ : block.succs)
+        if (LoopAnalyzer.dominates(succ, block))
+          effects |= IREffect.MAY_NOT_TERMINATE;
+      for (var inst : block.insts) {
+        if (inst instanceof IRLoadInst load && !allocas.contains(load.srcAddr))
+          effects |= load.srcAddr instanceof IRGlobalVar ? IREffect.READ_GLOBAL : IREffect.READ_MEMORY;
+        else if (inst instanceof IRStoreInst store && !allocas.contains(store.destAddr))
+          effects |= store.destAddr instanceof IRGlobalVar ? IREffect.WRITE_GLOBAL : IREffect.WRITE_MEMORY;
+        else if (inst instanceof IRCallInst call) {
+          IRFunction callee = funcMap.get(call.funcName);
+          if (callee == null)
+            effects |= program.effectsOf(call.funcName);
+          else if (!list.contains(callee))
+            list.add(callee);
+        }
+      }
+    }
+    callees.put(func, list);
+    return effects;
+  }
+
+  int dfsCnt = 0;
+  HashMap<IRFunction, Integer> dfn = new HashMap<>(), low = new HashMap<>();
+  LinkedList<IRFunction> stack = new LinkedList<>();
+  HashSet<IRFunction> onStack = new HashSet<>();
+
+  void tarjan(IRFunction func) {
+    dfn.put(func, dfsCnt);
+    low.put(func, dfsCnt++);
+    stack.push(func);
+    onStack.add(func);
+    for (var callee : callees.get(func)) {
+      if (!dfn.containsKey(callee)) {
+        tarjan(callee);
+        low.put(func, Math.min(low.get(func), low.get(callee)));
+      } else if (onStack.contains(callee))
+        low.put(func, Math.min(low.get(func), dfn.get(callee)));
+    }
+    if (!low.get(func).equals(dfn.get(func)))
+      return;
+    ArrayList<IRFunction> scc = new ArrayList<>();
+    IRFunction top;
+    do {
+      top = stack.pop();
+      onStack.remove(top);
+      scc.add(top);
+    } while (top != func);
+
+    // the callees outside the component are finished already
+    int effects = 0;
+    for (var member : scc) {
+      effects |= localEffects.get(member);
+      for (var callee : callees.get(member))
+        if (scc.contains(callee))
+          effects |= IREffect.MAY_NOT_TERMINATE;
+        else
+          effects |= program.funcEffects.get(callee.name);
+    }
+    for (var member : scc)
+      program.funcEffects.put(member.name, effects);
+  }
+}
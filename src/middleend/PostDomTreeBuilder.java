@@ -0,0 +1,145 @@
+package middleend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import IR.*;
+import IR.inst.*;
+
+/*
+ * Post dominator tree and post dominance frontiers (control dependence) on the reverse CFG
+ * the returning blocks are the successors of a virtual exit, and so is one block of every part of the
+ * function that never reaches a return (an infinite loop), those blocks are listed in noExit
+ * references:
+ *  https://www.cs.rice.edu/~keith/EMBED/dom.pdf (A Simple, Fast Dominance Algorithm)
+ *  Cytron et al., Efficiently Computing Static Single Assignment Form and the Control Dependence Graph
+ */
+
+public class PostDomTreeBuilder {
+  IRProgram program;
+  IRFunction curFunc;
+  IRBasicBlock exit;
+
+  public ArrayList<IRBasicBlock> noExit = new ArrayList<>();
+
+  HashMap<IRBasicBlock, IRBasicBlock> ipdom = new HashMap<>();
+  HashMap<IRBasicBlock, Integer> order = new HashMap<>();
+  LinkedList<IRBasicBlock> blockSeq = new LinkedList<>();
+  HashSet<IRBasicBlock> visited = new HashSet<>();
+
+  public PostDomTreeBuilder(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  // the successors in the reverse CFG
+  ArrayList<IRBasicBlock> reverseSuccs(IRBasicBlock block) {
+    if (block != exit)
+      return new ArrayList<>(block.preds);
+    ArrayList<IRBasicBlock> ret = new ArrayList<>();
+    for (var b : curFunc.blocks)
+      if (b.terminalInst instanceof IRRetInst && !ret.contains(b))
+        ret.add(b);
+    ret.addAll(noExit);
+    return ret;
+  }
+
+  // the predecessors in the reverse CFG
+  ArrayList<IRBasicBlock> reversePreds(IRBasicBlock block) {
+    ArrayList<IRBasicBlock> ret = new ArrayList<>(block.succs);
+    if (block.terminalInst instanceof IRRetInst || noExit.contains(block))
+      ret.add(exit);
+    return ret;
+  }
+
+  void calcReversePostOrder(IRBasicBlock block) {
+    visited.add(block);
+    for (var succ : reverseSuccs(block))
+      if (!visited.contains(succ))
+        calcReversePostOrder(succ);
+    order.put(block, blockSeq.size());
+    blockSeq.addFirst(block);
+  }
+
+  public void workOnFunc(IRFunction func) {
+    curFunc = func;
+    exit = new IRBasicBlock(func, "virtual.exit_", 0);
+    noExit.clear();
+    ipdom.clear();
+    order.clear();
+    blockSeq.clear();
+    visited.clear();
+    for (var block : func.blocks) {
+      block.postIdom = null;
+      block.postDomFrontier.clear();
+    }
+
+    // the blocks that cannot reach a return are connected to the exit, latest blocks first
+    calcReversePostOrder(exit);
+    for (var iter = func.blocks.descendingIterator(); iter.hasNext();) {
+      IRBasicBlock block = iter.next();
+      if (visited.contains(block))
+        continue;
+      noExit.add(block);
+      calcReversePostOrder(block);
+    }
+    // the order of the exit must be the largest
+    order.put(exit, blockSeq.size());
+    blockSeq.remove(exit);
+    blockSeq.addFirst(exit);
+
+    ipdom.put(exit, exit);
+    blockSeq.removeFirst();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (IRBasicBlock block : blockSeq) {
+        IRBasicBlock newIpdom = null;
+        for (IRBasicBlock pred : reversePreds(block))
+          if (!ipdom.containsKey(pred))
+            continue;
+          else if (newIpdom == null)
+            newIpdom = pred;
+          else
+            newIpdom = intersect(pred, newIpdom);
+        if (newIpdom != ipdom.get(block)) {
+          ipdom.put(block, newIpdom);
+          changed = true;
+        }
+      }
+    }
+    for (var block : blockSeq)
+      block.postIdom = ipdom.get(block) == exit ? null : ipdom.get(block);
+
+    // RDF(n) = {x | n post dominates a successor of x and n does not strictly post dominate x}
+    blockSeq.addFirst(exit);
+    for (IRBasicBlock block : blockSeq) {
+      var preds = reversePreds(block);
+      if (preds.size() < 2)
+        continue;
+      for (IRBasicBlock pred : preds) {
+        IRBasicBlock runner = pred;
+        while (runner != ipdom.get(block)) {
+          if (runner != exit && !runner.postDomFrontier.contains(block))
+            runner.postDomFrontier.add(block);
+          runner = ipdom.get(runner);
+        }
+      }
+    }
+  }
+
+  IRBasicBlock intersect(IRBasicBlock x, IRBasicBlock y) {
+    while (x != y) {
+      while (order.get(x) < order.get(y))
+        x = ipdom.get(x);
+      while (order.get(y) < order.get(x))
+        y = ipdom.get(y);
+    }
+    return x;
+  }
+}
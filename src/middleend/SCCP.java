@@ -0,0 +1,317 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.type.*;
+import IR.entity.*;
+import utils.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Sparse conditional constant propagation
+ * a register is undefined (not in constVal or overDefined), a constant, or overdefined
+ * blocks and edges are assumed unreachable until a reachable terminator proves otherwise
+ * reference: Wegman & Zadeck, Constant Propagation with Conditional Branches
+ */
+
+public class SCCP implements BuiltinElements {
+  IRProgram program;
+  IRFunction curFunc;
+
+  HashMap<IRRegister, IRInst> defInst = new HashMap<>();
+  HashMap<IRRegister, ArrayList<IRInst>> users = new HashMap<>();
+  HashMap<IRRegister, IRConst> constVal = new HashMap<>();
+  HashSet<IRRegister> overDefined = new HashSet<>();
+
+  HashSet<IRBasicBlock> executable = new HashSet<>();
+  // the executable incoming edges of each block, by source block
+  HashMap<IRBasicBlock, HashSet<IRBasicBlock>> executableFrom = new HashMap<>();
+  ArrayDeque<IRBasicBlock[]> edgeWorkList = new ArrayDeque<>();
+  ArrayDeque<IRInst> instWorkList = new ArrayDeque<>();
+
+  public SCCP(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    defInst.clear();
+    users.clear();
+    constVal.clear();
+    overDefined.clear();
+    executable.clear();
+    executableFrom.clear();
+    for (var block : func.blocks) {
+      for (var inst : block.insts)
+        addInst(inst);
+      addInst(block.terminalInst);
+    }
+
+    // the entry block is reached by a virtual edge
+    visitBlock(func.entryBlock);
+    while (!edgeWorkList.isEmpty() || !instWorkList.isEmpty()) {
+      while (!edgeWorkList.isEmpty()) {
+        var edge = edgeWorkList.removeFirst();
+        IRBasicBlock from = edge[0], to = edge[1];
+        if (!executableFrom.computeIfAbsent(to, k -> new HashSet<>()).add(from))
+          continue;
+        if (executable.contains(to)) {
+          for (var inst : to.insts) {
+            if (!(inst instanceof IRPhiInst))
+              break;
+            visit(inst);
+          }
+        } else
+          visitBlock(to);
+      }
+      while (!instWorkList.isEmpty()) {
+        IRInst inst = instWorkList.removeFirst();
+        if (executable.contains(inst.parentBlock))
+          visit(inst);
+      }
+    }
+
+    rewrite();
+  }
+
+  void addInst(IRInst inst) {
+    if (inst.getDef() != null)
+      defInst.put(inst.getDef(), inst);
+    for (var use : inst.getUse())
+      if (use instanceof IRRegister reg)
+        users.computeIfAbsent(reg, k -> new ArrayList<>()).add(inst);
+  }
+
+  void visitBlock(IRBasicBlock block) {
+    executable.add(block);
+    for (var inst : block.insts)
+      visit(inst);
+    visit(block.terminalInst);
+  }
+
+  // ------------------ lattice ------------------
+
+  boolean isOverDefined(IREntity entity) {
+    if (entity instanceof IRRegister reg)
+      return overDefined.contains(reg) || !defInst.containsKey(reg);
+    return !isFoldable(entity);
+  }
+
+  // null if entity is undefined or overdefined
+  IRConst getConst(IREntity entity) {
+    if (entity instanceof IRRegister reg)
+      return constVal.get(reg);
+    return isFoldable(entity) ? (IRConst) entity : null;
+  }
+
+  boolean isFoldable(IREntity entity) {
+    return entity instanceof IRIntConst || entity instanceof IRBoolConst || entity instanceof IRCondConst
+        || entity instanceof IRNullConst;
+  }
+
+  void markOverDefined(IRRegister reg) {
+    if (overDefined.add(reg)) {
+      constVal.remove(reg);
+      notifyUsers(reg);
+    }
+  }
+
+  void markConst(IRRegister reg, IRConst val) {
+    if (overDefined.contains(reg))
+      return;
+    IRConst old = constVal.get(reg);
+    if (old == null) {
+      constVal.put(reg, val);
+      notifyUsers(reg);
+    } else if (!old.equals(val))
+      markOverDefined(reg);
+  }
+
+  void notifyUsers(IRRegister reg) {
+    var list = users.get(reg);
+    if (list != null)
+      instWorkList.addAll(list);
+  }
+
+  void markEdge(IRBasicBlock from, IRBasicBlock to) {
+    edgeWorkList.add(new IRBasicBlock[] {from, to});
+  }
+
+  // ------------------ transfer functions ------------------
+
+  void visit(IRInst inst) {
+    if (inst instanceof IRPhiInst phi)
+      visitPhi(phi);
+    else if (inst instanceof IRBranchInst br) {
+      if (isOverDefined(br.cond)) {
+        markEdge(br.parentBlock, br.thenBlock);
+        markEdge(br.parentBlock, br.elseBlock);
+      } else if (getConst(br.cond) != null)
+        markEdge(br.parentBlock, getConst(br.cond).isZero() ? br.elseBlock : br.thenBlock);
+    } else if (inst instanceof IRJumpInst jump)
+      markEdge(jump.parentBlock, jump.toBlock);
+    else if (inst.getDef() != null) {
+      IRRegister def = inst.getDef();
+      if (!(inst instanceof IRCalcInst || inst instanceof IRIcmpInst || inst instanceof IRCastInst)) {
+        markOverDefined(def);
+        return;
+      }
+      boolean undefined = false;
+      for (var use : inst.getUse()) {
+        if (isOverDefined(use)) {
+          markOverDefined(def);
+          return;
+        }
+        if (getConst(use) == null)
+          undefined = true;
+      }
+      if (undefined)
+        return;
+      IRConst val = fold(inst);
+      if (val == null)
+        markOverDefined(def);
+      else
+        markConst(def, val);
+    }
+  }
+
+  void visitPhi(IRPhiInst phi) {
+    var from = executableFrom.get(phi.parentBlock);
+    if (from == null)
+      return;
+    for (int i = 0; i < phi.values.size(); ++i) {
+      if (!from.contains(phi.blocks.get(i)))
+        continue;
+      IREntity val = phi.values.get(i);
+      if (isOverDefined(val)) {
+        markOverDefined(phi.dest);
+        return;
+      }
+      if (getConst(val) != null)
+        markConst(phi.dest, getConst(val));
+    }
+  }
+
+  static int intValue(IRConst val) {
+    if (val instanceof IRIntConst intConst)
+      return intConst.val;
+    if (val instanceof IRBoolConst boolConst)
+      return boolConst.val ? 1 : 0;
+    if (val instanceof IRCondConst condConst)
+      return condConst.val ? 1 : 0;
+    return 0; // null
+  }
+
+  static IRConst makeConst(IRType type, int val) {
+    if (!(type instanceof IRIntType intType))
+      return null;
+    if (intType.bitWidth == 1)
+      return val != 0 ? irTrueConst : irFalseConst;
+    if (intType.bitWidth == 8)
+      return val != 0 ? irBoolTrueConst : irBoolFalseConst;
+    return new IRIntConst(val);
+  }
+
+  IRConst fold(IRInst inst) {
+    if (inst instanceof IRCalcInst calc) {
+      Integer res = IRCalcInst.calc(calc.op, intValue(getConst(calc.lhs)), intValue(getConst(calc.rhs)));
+      return res == null ? null : makeConst(calc.res.type, res);
+    }
+    if (inst instanceof IRIcmpInst icmp)
+      return IRIcmpInst.compare(icmp.op, intValue(getConst(icmp.lhs)), intValue(getConst(icmp.rhs)))
+          ? irTrueConst : irFalseConst;
+    if (inst instanceof IRCastInst cast)
+      return makeConst(cast.targetType, intValue(getConst(cast.val)));
+    return null;
+  }
+
+  // ------------------ rewrite ------------------
+
+  HashMap<IREntity, IREntity> replace = new HashMap<>();
+
+  IREntity resolve(IREntity val) {
+    while (replace.containsKey(val))
+      val = replace.get(val);
+    return val;
+  }
+
+  void rewrite() {
+    replace.clear();
+    replace.putAll(constVal);
+    var newBlocks = new LinkedList<IRBasicBlock>();
+    for (var block : curFunc.blocks)
+      if (executable.contains(block))
+        newBlocks.add(block);
+    curFunc.blocks = newBlocks;
+
+    for (var block : curFunc.blocks) {
+      var from = executableFrom.getOrDefault(block, new HashSet<>());
+      for (var inst : block.insts) {
+        if (inst.getDef() != null && constVal.containsKey(inst.getDef())) {
+          inst.isDeleted = true;
+          continue;
+        }
+        if (!(inst instanceof IRPhiInst phi))
+          continue;
+        // drop the incoming values of edges that are never taken
+        for (int i = phi.values.size() - 1; i >= 0; --i)
+          if (!from.contains(phi.blocks.get(i))) {
+            phi.values.remove(i);
+            phi.blocks.remove(i);
+          }
+      }
+      if (block.terminalInst instanceof IRBranchInst br && getConst(br.cond) != null)
+        block.terminalInst = new IRJumpInst(block, getConst(br.cond).isZero() ? br.elseBlock : br.thenBlock);
+    }
+
+    // phis left with a single distinct value are replaced by it
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (var block : curFunc.blocks)
+        for (var inst : block.insts) {
+          if (!(inst instanceof IRPhiInst phi))
+            break;
+          if (phi.isDeleted)
+            continue;
+          IREntity val = null;
+          boolean same = true;
+          for (var value : phi.values) {
+            IREntity v = resolve(value);
+            if (v == phi.dest)
+              continue;
+            if (val == null || v == val || v instanceof IRConst c && val instanceof IRConst d && c.equals(d))
+              val = v;
+            else
+              same = false;
+          }
+          if (same && val != null) {
+            phi.isDeleted = true;
+            replace.put(phi.dest, val);
+            changed = true;
+          }
+        }
+    }
+
+    for (var block : curFunc.blocks) {
+      block.insts.removeIf(inst -> inst.isDeleted);
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, resolve(use));
+      for (var use : block.terminalInst.getUse())
+        if (replace.containsKey(use))
+          block.terminalInst.replaceUse(use, resolve(use));
+    }
+    new CFGBuilder(program).workOnFunc(curFunc);
+  }
+}
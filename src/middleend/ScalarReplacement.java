@@ -0,0 +1,97 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/*
+ * Scalar replacement of aggregates
+ * an object or array from malloc that does not escape (EscapeAnalyzer) and is only accessed at
+ * constant offsets gets an alloca for every offset, which Mem2Reg turns into SSA values
+ * every slot is set to 0 where the malloc was, as the fresh memory of malloc is, so a field that is
+ * read before it is written does not see the object of an earlier iteration
+ * the malloc itself is left to the dead code elimination
+ */
+
+public class ScalarReplacement implements BuiltinElements {
+  IRProgram program;
+  IRFunction curFunc;
+  EscapeAnalyzer escape;
+
+  public ScalarReplacement(IRProgram program) {
+    this.program = program;
+    escape = new EscapeAnalyzer(program);
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    escape.workOnFunc(func);
+    boolean changed = false;
+    for (var call : escape.mallocs)
+      if (!escape.escaping.contains(call))
+        changed |= replace(call, escape.accesses.get(call));
+    if (!changed)
+      return;
+    new DomTreeBuilder(program).workOnFunc(func);
+    new Mem2Reg(program).workOnFunc(func);
+  }
+
+  IRType valueType(IRInst inst) {
+    return inst instanceof IRLoadInst load ? load.type : ((IRStoreInst) inst).val.type;
+  }
+
+  boolean replace(IRCallInst call, ArrayList<IRInst> accesses) {
+    if (accesses.isEmpty())
+      return false;
+    // the accesses of one offset must have the same size and must not overlap the others
+    TreeMap<Integer, ArrayList<IRInst>> fields = new TreeMap<>();
+    for (var inst : accesses) {
+      Integer offset = escape.offsetOf.get(inst);
+      if (offset == null)
+        return false;
+      fields.computeIfAbsent(offset, k -> new ArrayList<>()).add(inst);
+    }
+    int end = Integer.MIN_VALUE;
+    for (var entry : fields.entrySet()) {
+      if (entry.getKey() < end)
+        return false;
+      int size = AliasAnalyzer.sizeOf(valueType(entry.getValue().get(0)));
+      for (var inst : entry.getValue())
+        if (AliasAnalyzer.sizeOf(valueType(inst)) != size)
+          return false;
+      end = entry.getKey() + size;
+    }
+
+    for (var field : fields.values()) {
+      IRType type = null;
+      for (var inst : field)
+        if (type == null || inst instanceof IRLoadInst)
+          type = valueType(inst);
+      // only stores of null, the slot is never read
+      if (type == irNullType)
+        type = irIntType;
+      IRRegister slot = new IRRegister("", new IRPtrType(type));
+      curFunc.entryBlock.insts.addFirst(new IRAllocaInst(curFunc.entryBlock, type, slot));
+      var block = call.parentBlock;
+      block.insts.add(block.insts.indexOf(call) + 1, new IRStoreInst(block, type.defaultValue(), slot));
+      for (var inst : field)
+        if (inst instanceof IRLoadInst load) {
+          load.srcAddr = slot;
+          load.typeTag = null;
+        } else {
+          ((IRStoreInst) inst).destAddr = slot;
+          ((IRStoreInst) inst).typeTag = null;
+        }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,336 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+import utils.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+
+/*
+ * CFG simplification, repeated until nothing changes
+ *  - a branch on a constant or with equal targets becomes a jump
+ *  - a block that only tests a phi of constants (the end of a short circuit) is skipped by the
+ *    predecessors that give it a constant
+ *  - a diamond or triangle with empty arms becomes a jump, its phis of 0 and 1 become the condition
+ *  - an empty block that only jumps is skipped by its predecessors
+ *  - a block is merged into its only predecessor if that one only jumps to it
+ * preds and succs are rebuilt after every round, a block whose edges changed is left alone until then
+ */
+
+public class SimplifyCFG implements BuiltinElements {
+  IRProgram program;
+  IRFunction curFunc;
+
+  HashSet<IRBasicBlock> touched = new HashSet<>(), removed = new HashSet<>();
+
+  public SimplifyCFG(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    func.blocks = new LinkedList<>(new LinkedHashSet<>(func.blocks));
+    boolean changed = true;
+    while (changed) {
+      new CFGBuilder(program).workOnFunc(func);
+      touched.clear();
+      removed.clear();
+      changed = false;
+      for (var block : func.blocks)
+        if (free(block))
+          changed |= foldBranch(block) || threadBranch(block) || foldDiamond(block) || forwardEmpty(block)
+              || mergeSucc(block);
+      func.blocks.removeIf(block -> removed.contains(block));
+    }
+    new CFGBuilder(program).workOnFunc(func);
+
+    // the backend takes the last block as the exit
+    IRBasicBlock exit = null;
+    for (var block : func.blocks)
+      if (block.terminalInst instanceof IRRetInst)
+        exit = exit == null ? block : null;
+    if (exit != null) {
+      func.blocks.remove(exit);
+      func.blocks.add(exit);
+      func.exitBlock = exit;
+    }
+  }
+
+  boolean free(IRBasicBlock... blocks) {
+    for (var block : blocks)
+      if (touched.contains(block) || removed.contains(block))
+        return false;
+    return true;
+  }
+
+  boolean free(Iterable<IRBasicBlock> blocks) {
+    for (var block : blocks)
+      if (!free(block))
+        return false;
+    return true;
+  }
+
+  void touch(IRBasicBlock... blocks) {
+    for (var block : blocks)
+      touched.add(block);
+  }
+
+  ArrayList<IRPhiInst> phisOf(IRBasicBlock block) {
+    ArrayList<IRPhiInst> ret = new ArrayList<>();
+    for (var inst : block.insts)
+      if (inst instanceof IRPhiInst phi)
+        ret.add(phi);
+      else
+        break;
+    return ret;
+  }
+
+  void removePhiEntries(IRBasicBlock block, IRBasicBlock from, boolean keepFirst) {
+    for (var phi : phisOf(block)) {
+      boolean first = keepFirst;
+      for (int i = 0; i < phi.blocks.size(); ++i)
+        if (phi.blocks.get(i) == from) {
+          if (first) {
+            first = false;
+            continue;
+          }
+          phi.blocks.remove(i);
+          phi.values.remove(i--);
+        }
+    }
+  }
+
+  IREntity valueFrom(IRPhiInst phi, IRBasicBlock from) {
+    return phi.values.get(phi.blocks.indexOf(from));
+  }
+
+  static boolean isOne(IREntity val) {
+    return val instanceof IRIntConst c && c.val == 1 || val instanceof IRBoolConst b && b.val
+        || val instanceof IRCondConst c && c.val;
+  }
+
+  static boolean isZero(IREntity val) {
+    return (val instanceof IRIntConst || val instanceof IRBoolConst || val instanceof IRCondConst)
+        && ((IRConst) val).isZero();
+  }
+
+  static boolean same(IREntity a, IREntity b) {
+    return a == b || a instanceof IRConst c && b instanceof IRConst d && c.getClass() == d.getClass() && c.equals(d);
+  }
+
+  void replaceAllUses(IREntity old, IREntity newOne) {
+    for (var block : curFunc.blocks) {
+      for (var inst : block.insts)
+        inst.replaceUse(old, newOne);
+      block.terminalInst.replaceUse(old, newOne);
+    }
+  }
+
+  // ------------------ branches ------------------
+
+  boolean foldBranch(IRBasicBlock block) {
+    if (!(block.terminalInst instanceof IRBranchInst br) || !free(br.thenBlock, br.elseBlock))
+      return false;
+    if (br.thenBlock == br.elseBlock) {
+      block.terminalInst = new IRJumpInst(block, br.thenBlock);
+      removePhiEntries(br.thenBlock, block, true);
+    } else if (br.cond instanceof IRCondConst c) {
+      block.terminalInst = new IRJumpInst(block, c.val ? br.thenBlock : br.elseBlock);
+      removePhiEntries(c.val ? br.elseBlock : br.thenBlock, block, false);
+    } else
+      return false;
+    touch(block, br.thenBlock, br.elseBlock);
+    return true;
+  }
+
+  // phi [1, a], [0, b], ...; trunc; br -> a and b jump to the targets directly
+  boolean threadBranch(IRBasicBlock block) {
+    if (block == curFunc.entryBlock || !(block.terminalInst instanceof IRBranchInst br) || block.insts.isEmpty()
+        || !(block.insts.getFirst() instanceof IRPhiInst phi) || !free(br.thenBlock, br.elseBlock))
+      return false;
+    HashSet<IREntity> defs = new HashSet<>();
+    IREntity val = phi.dest;
+    defs.add(val);
+    for (var inst : block.insts)
+      if (inst != phi) {
+        if (!(inst instanceof IRCastInst cast) || cast.val != val)
+          return false;
+        val = cast.dest;
+        defs.add(val);
+      }
+    if (br.cond != val)
+      return false;
+    for (var other : curFunc.blocks)
+      if (other != block) {
+        for (var inst : other.insts)
+          for (var use : inst.getUse())
+            if (defs.contains(use))
+              return false;
+        for (var use : other.terminalInst.getUse())
+          if (defs.contains(use))
+            return false;
+      }
+
+    boolean changed = false;
+    for (int i = phi.values.size() - 1; i >= 0; --i) {
+      IRBasicBlock pred = phi.blocks.get(i);
+      IREntity incoming = phi.values.get(i);
+      if (!isOne(incoming) && !isZero(incoming) || !free(pred))
+        continue;
+      IRBasicBlock target = isOne(incoming) ? br.thenBlock : br.elseBlock;
+      if (pred == block || target == block || target.preds.contains(pred)
+          || pred.terminalInst instanceof IRBranchInst predBr && predBr.thenBlock == predBr.elseBlock)
+        continue;
+      for (var targetPhi : phisOf(target))
+        targetPhi.add(valueFrom(targetPhi, block), pred);
+      pred.terminalInst.replaceBlock(block, target);
+      phi.values.remove(i);
+      phi.blocks.remove(i);
+      touch(pred);
+      changed = true;
+    }
+    if (changed)
+      touch(block, br.thenBlock, br.elseBlock);
+    return changed;
+  }
+
+  boolean isEmptyArm(IRBasicBlock arm, IRBasicBlock from) {
+    return arm != from && arm != curFunc.entryBlock && arm.insts.isEmpty() && arm.preds.size() == 1
+        && arm.terminalInst instanceof IRJumpInst;
+  }
+
+  IRBasicBlock jumpTarget(IRBasicBlock block) {
+    return ((IRJumpInst) block.terminalInst).toBlock;
+  }
+
+  boolean foldDiamond(IRBasicBlock block) {
+    if (!(block.terminalInst instanceof IRBranchInst br) || br.thenBlock == br.elseBlock)
+      return false;
+    IRBasicBlock thenBlock = br.thenBlock, elseBlock = br.elseBlock, join, fromThen, fromElse;
+    boolean thenEmpty = isEmptyArm(thenBlock, block), elseEmpty = isEmptyArm(elseBlock, block);
+    if (thenEmpty && elseEmpty && jumpTarget(thenBlock) == jumpTarget(elseBlock)) {
+      join = jumpTarget(thenBlock);
+      fromThen = thenBlock;
+      fromElse = elseBlock;
+    } else if (thenEmpty && jumpTarget(thenBlock) == elseBlock) {
+      join = elseBlock;
+      fromThen = thenBlock;
+      fromElse = block;
+    } else if (elseEmpty && jumpTarget(elseBlock) == thenBlock) {
+      join = thenBlock;
+      fromThen = block;
+      fromElse = elseBlock;
+    } else
+      return false;
+    if (join == block || !free(thenBlock, elseBlock, join))
+      return false;
+
+    // every phi must be a function of the condition
+    var phis = phisOf(join);
+    for (var phi : phis) {
+      IREntity a = valueFrom(phi, fromThen), b = valueFrom(phi, fromElse);
+      if (!same(a, b) && !(isOne(a) && isZero(b)) && !(isZero(a) && isOne(b)))
+        return false;
+    }
+    IRRegister notCond = null;
+    for (var phi : phis) {
+      IREntity a = valueFrom(phi, fromThen), b = valueFrom(phi, fromElse), val = a;
+      if (!same(a, b)) {
+        IREntity cond = br.cond;
+        if (isZero(a)) {
+          if (notCond == null) {
+            notCond = new IRRegister("", irCondType);
+            block.insts.add(new IRCalcInst(block, irCondType, notCond, br.cond, irTrueConst, "xor"));
+          }
+          cond = notCond;
+        }
+        val = cond;
+        if (!(phi.dest.type instanceof IRIntType intType && intType.bitWidth == 1)) {
+          IRRegister ext = new IRRegister("", phi.dest.type);
+          block.insts.add(new IRZextInst(block, ext, cond, phi.dest.type));
+          val = ext;
+        }
+      }
+      for (int i = phi.blocks.size() - 1; i >= 0; --i)
+        if (phi.blocks.get(i) == fromThen || phi.blocks.get(i) == fromElse) {
+          phi.blocks.remove(i);
+          phi.values.remove(i);
+        }
+      phi.add(val, block);
+    }
+    block.terminalInst = new IRJumpInst(block, join);
+    touch(block, thenBlock, elseBlock, join);
+    return true;
+  }
+
+  // ------------------ jumps ------------------
+
+  boolean forwardEmpty(IRBasicBlock block) {
+    if (block == curFunc.entryBlock || !block.insts.isEmpty() || !(block.terminalInst instanceof IRJumpInst jump)
+        || block.preds.isEmpty())
+      return false;
+    IRBasicBlock succ = jump.toBlock;
+    var preds = new ArrayList<>(new LinkedHashSet<>(block.preds));
+    if (succ == block || !free(succ) || !free(preds))
+      return false;
+    var phis = phisOf(succ);
+    if (!phis.isEmpty())
+      for (var pred : preds)
+        if (succ.preds.contains(pred))
+          return false;
+    for (var phi : phis) {
+      IREntity val = valueFrom(phi, block);
+      for (int i = phi.blocks.size() - 1; i >= 0; --i)
+        if (phi.blocks.get(i) == block) {
+          phi.blocks.remove(i);
+          phi.values.remove(i);
+        }
+      for (var pred : preds)
+        phi.add(val, pred);
+    }
+    for (var pred : preds) {
+      pred.terminalInst.replaceBlock(block, succ);
+      touch(pred);
+    }
+    removed.add(block);
+    touch(succ);
+    return true;
+  }
+
+  boolean mergeSucc(IRBasicBlock block) {
+    if (!(block.terminalInst instanceof IRJumpInst jump))
+      return false;
+    IRBasicBlock succ = jump.toBlock;
+    if (succ == block || succ == curFunc.entryBlock || succ.preds.size() != 1 || !free(succ) || !free(succ.succs))
+      return false;
+    for (var inst : succ.insts) {
+      if (inst instanceof IRPhiInst phi)
+        replaceAllUses(phi.dest, phi.values.get(0));
+      else {
+        inst.parentBlock = block;
+        block.insts.add(inst);
+      }
+    }
+    block.terminalInst = succ.terminalInst;
+    block.terminalInst.parentBlock = block;
+    for (var next : new LinkedHashSet<>(succ.succs)) {
+      for (var phi : phisOf(next))
+        phi.blocks.replaceAll(from -> from == succ ? block : from);
+      touch(next);
+    }
+    if (curFunc.exitBlock == succ)
+      curFunc.exitBlock = block;
+    removed.add(succ);
+    touch(block);
+    return true;
+  }
+}
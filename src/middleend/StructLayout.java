@@ -0,0 +1,135 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+import IR.type.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Layout of the classes, after the memory optimizations that still see a member as 4 bytes
+ *  - a member that is never read is removed with the stores to it
+ *  - the 4-byte members come first and then the bools, one byte each (IRStructType.calcSize)
+ *  - among the members of one size, the ones accessed most often (weighted by loop depth) come first
+ * the member indices of the getelementptrs and the sizes of the mallocs of the objects are updated
+ */
+
+public class StructLayout {
+  IRProgram program;
+
+  // per class: the accesses of every member and its weighted count, and the members used other than
+  // as the address of a store
+  HashMap<IRStructType, ArrayList<ArrayList<IRGetElementPtrInst>>> geps = new HashMap<>();
+  HashMap<IRStructType, long[]> weight = new HashMap<>();
+  HashMap<IRStructType, boolean[]> read = new HashMap<>();
+  HashMap<IRRegister, ArrayList<IRInst>> users = new HashMap<>();
+  HashMap<IRGetElementPtrInst, ArrayList<IRInst>> gepUsers = new HashMap<>();
+  HashSet<IRInst> removed = new HashSet<>();
+
+  public StructLayout(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    for (var structType : program.structTypeList) {
+      int n = structType.memberType.size();
+      var list = new ArrayList<ArrayList<IRGetElementPtrInst>>();
+      for (int i = 0; i < n; ++i)
+        list.add(new ArrayList<>());
+      geps.put(structType, list);
+      weight.put(structType, new long[n]);
+      read.put(structType, new boolean[n]);
+    }
+    program.funcList.forEach(func -> collect(func));
+    for (var structType : program.structTypeList)
+      layout(structType);
+    for (var func : program.funcList)
+      for (var block : func.blocks)
+        block.insts.removeIf(inst -> removed.contains(inst));
+    program.funcList.forEach(func -> resizeMallocs(func));
+  }
+
+  void collect(IRFunction func) {
+    users.clear();
+    for (var block : func.blocks) {
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (use instanceof IRRegister reg)
+            users.computeIfAbsent(reg, k -> new ArrayList<>()).add(inst);
+      for (var use : block.terminalInst.getUse())
+        if (use instanceof IRRegister reg)
+          users.computeIfAbsent(reg, k -> new ArrayList<>()).add(block.terminalInst);
+    }
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRGetElementPtrInst gep && gep.pToType instanceof IRStructType structType
+            && geps.containsKey(structType)) {
+          int member = ((IRIntConst) gep.indexList.get(1)).val;
+          geps.get(structType).get(member).add(gep);
+          gepUsers.put(gep, users.getOrDefault(gep.res, new ArrayList<>()));
+          for (var user : gepUsers.get(gep)) {
+            weight.get(structType)[member] += (long) Math.pow(10, Math.min(user.parentBlock.loopDepth, 8));
+            if (!(user instanceof IRStoreInst store) || store.val == gep.res)
+              read.get(structType)[member] = true;
+          }
+        }
+  }
+
+  void layout(IRStructType structType) {
+    int n = structType.memberType.size();
+    long[] weight = this.weight.get(structType);
+    ArrayList<Integer> order = new ArrayList<>();
+    for (int i = 0; i < n; ++i)
+      if (read.get(structType)[i])
+        order.add(i);
+      else
+        // only stored, so the stores and the addresses go away
+        for (var gep : geps.get(structType).get(i)) {
+          removed.add(gep);
+          removed.addAll(gepUsers.get(gep));
+        }
+    order.sort((a, b) -> {
+      int sizeA = structType.memberType.get(a).size, sizeB = structType.memberType.get(b).size;
+      if (sizeA != sizeB)
+        return sizeB - sizeA;
+      return weight[a] != weight[b] ? Long.compare(weight[b], weight[a]) : a - b;
+    });
+
+    int[] newIndex = new int[n];
+    ArrayList<IRType> memberType = new ArrayList<>();
+    for (int i = 0; i < order.size(); ++i) {
+      newIndex[order.get(i)] = i;
+      memberType.add(structType.memberType.get(order.get(i)));
+    }
+    HashMap<String, Integer> memberOffset = new HashMap<>();
+    structType.memberOffset.forEach((name, index) -> {
+      if (read.get(structType)[index])
+        memberOffset.put(name, newIndex[index]);
+    });
+    structType.memberType = memberType;
+    structType.memberOffset = memberOffset;
+    structType.calcSize();
+    for (int i = 0; i < n; ++i)
+      if (read.get(structType)[i])
+        for (var gep : geps.get(structType).get(i))
+          gep.indexList.set(1, new IRIntConst(newIndex[i]));
+  }
+
+  // malloc(size); bitcast to %struct.A* -> malloc of the new size
+  void resizeMallocs(IRFunction func) {
+    HashMap<IRRegister, IRCallInst> mallocs = new HashMap<>();
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRCallInst call && call.funcName.equals("malloc") && call.callReg != null
+            && call.args.get(0) instanceof IRIntConst)
+          mallocs.put(call.callReg, call);
+    for (var block : func.blocks)
+      for (var inst : block.insts)
+        if (inst instanceof IRBitcastInst cast && mallocs.containsKey(cast.val)
+            && cast.targetType instanceof IRPtrType ptrType && ptrType.pointToType() instanceof IRStructType structType)
+          mallocs.get(cast.val).args.set(0, new IRIntConst(structType.size));
+  }
+}
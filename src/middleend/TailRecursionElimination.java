@@ -0,0 +1,129 @@
+package middleend;
+
+import IR.*;
+import IR.inst.*;
+import IR.entity.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/*
+ * Tail recursion elimination, after Mem2Reg
+ * a call of the function itself whose value is returned right away becomes a jump back to the old
+ * entry block, which is now a loop header with a phi for every parameter
+ * the allocas move to a new entry block, the parameters after the 8th live in the caller's frame
+ * and are overwritten by stores before the jump
+ * reference: Muchnick, Advanced Compiler Design and Implementation, chapter 15.1
+ */
+
+public class TailRecursionElimination {
+  IRProgram program;
+  IRFunction curFunc;
+
+  public TailRecursionElimination(IRProgram program) {
+    this.program = program;
+  }
+
+  public void work() {
+    program.funcList.forEach(func -> workOnFunc(func));
+  }
+
+  void workOnFunc(IRFunction func) {
+    curFunc = func;
+    ArrayList<IRCallInst> tailCalls = new ArrayList<>();
+    for (var block : func.blocks)
+      if (!block.insts.isEmpty()) {
+        IRInst last = block.insts.getLast();
+        if (last instanceof IRZextInst && block.insts.size() > 1)
+          last = block.insts.get(block.insts.size() - 2);
+        if (last instanceof IRCallInst call && call.funcName.equals(func.name) && call.isTail())
+          tailCalls.add(call);
+      }
+    if (tailCalls.isEmpty() || !hasOtherReturn(tailCalls))
+      return;
+
+    // the parameters after the 8th are read from their slots in the caller's frame
+    HashMap<Integer, IRRegister> stackSlot = new HashMap<>();
+    for (var inst : func.entryBlock.insts)
+      if (inst instanceof IRStoreInst store && store.param_idx >= 8)
+        stackSlot.put(store.param_idx, store.destAddr);
+    for (int i = 8; i < func.params.size(); ++i)
+      if (!stackSlot.containsKey(i))
+        return;
+
+    IRBasicBlock header = func.entryBlock;
+    IRBasicBlock entry = new IRBasicBlock(func, "tailrec.entry_", header, 0);
+    // the allocas and the stores that only record the stack parameters stay out of the loop
+    for (var iter = header.insts.iterator(); iter.hasNext();) {
+      IRInst inst = iter.next();
+      if (inst instanceof IRAllocaInst || inst instanceof IRStoreInst store && store.param_idx >= 8) {
+        iter.remove();
+        inst.parentBlock = entry;
+        entry.insts.add(inst);
+      }
+    }
+    func.blocks.addFirst(entry);
+    func.entryBlock = entry;
+
+    ArrayList<IRPhiInst> phis = new ArrayList<>();
+    HashMap<IREntity, IREntity> replace = new HashMap<>();
+    for (int i = 0; i < func.params.size() && i < 8; ++i) {
+      IRRegister param = func.params.get(i);
+      IRPhiInst phi = new IRPhiInst(header, null, new IRRegister("", param.type));
+      phi.add(param, entry);
+      phis.add(phi);
+      replace.put(param, phi.dest);
+    }
+    for (var block : func.blocks) {
+      for (var inst : block.insts)
+        for (var use : inst.getUse())
+          if (replace.containsKey(use))
+            inst.replaceUse(use, replace.get(use));
+      for (var use : block.terminalInst.getUse())
+        if (replace.containsKey(use))
+          block.terminalInst.replaceUse(use, replace.get(use));
+    }
+
+    for (var call : tailCalls) {
+      IRBasicBlock block = call.parentBlock;
+      while (block.insts.getLast() != call)
+        block.insts.removeLast();
+      block.insts.removeLast();
+      for (int i = 0; i < phis.size(); ++i)
+        phis.get(i).add(call.args.get(i), block);
+      for (int i = 8; i < call.args.size(); ++i)
+        block.insts.add(new IRStoreInst(block, call.args.get(i), stackSlot.get(i)));
+      if (block.terminalInst instanceof IRJumpInst jump)
+        for (var inst : jump.toBlock.insts)
+          if (inst instanceof IRPhiInst phi) {
+            int index = phi.blocks.indexOf(block);
+            phi.blocks.remove(index);
+            phi.values.remove(index);
+          }
+      block.terminalInst = new IRJumpInst(block, header);
+    }
+    for (int i = phis.size() - 1; i >= 0; --i)
+      header.insts.addFirst(phis.get(i));
+    new CFGBuilder(program).workOnFunc(func);
+  }
+
+  // a function that only returns through its tail calls never returns, it is left alone
+  boolean hasOtherReturn(ArrayList<IRCallInst> tailCalls) {
+    HashSet<IRBasicBlock> visited = new HashSet<>();
+    tailCalls.forEach(call -> visited.add(call.parentBlock));
+    LinkedList<IRBasicBlock> workList = new LinkedList<>();
+    if (visited.add(curFunc.entryBlock))
+      workList.add(curFunc.entryBlock);
+    while (!workList.isEmpty()) {
+      IRBasicBlock block = workList.removeFirst();
+      if (block.terminalInst instanceof IRRetInst)
+        return true;
+      for (var succ : block.succs)
+        if (visited.add(succ))
+          workList.add(succ);
+    }
+    return false;
+  }
+}
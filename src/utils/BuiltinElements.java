@@ -1,9 +1,12 @@
 package utils;
 
 import ast.*;
+import IR.IREffect;
 import IR.entity.*;
 import IR.type.*;
 
+import java.util.Map;
+
 public interface BuiltinElements {
   Type VoidType = new Type("void");
   Type IntType = new Type("int");
@@ -49,4 +52,19 @@ public interface BuiltinElements {
   IRIntConst irIntConst1 = new IRIntConst(1);
   IRIntConst irIntConstn1 = new IRIntConst(-1);
   IRIntConst irIntConst4 = new IRIntConst(4);
+
+  // ------------------ IR Builtin Functions ------------------
+
+  // hand-written summaries of the builtin functions, see IR.IREffect
+  // strings are never written after they are built, so reading them is not a memory read
+  Map<String, Integer> builtinEffects = Map.ofEntries(
+      Map.entry("print", IREffect.IO), Map.entry("println", IREffect.IO),
+      Map.entry("printInt", IREffect.IO), Map.entry("printlnInt", IREffect.IO),
+      Map.entry("getString", IREffect.IO | IREffect.ALLOCATE), Map.entry("getInt", IREffect.IO),
+      Map.entry("malloc", IREffect.ALLOCATE), Map.entry("toString", IREffect.ALLOCATE),
+      Map.entry("__mx_substring", IREffect.ALLOCATE), Map.entry("__mx_stradd", IREffect.ALLOCATE),
+      Map.entry("strlen", 0), Map.entry("__mx_parseInt", 0), Map.entry("__mx_ord", 0),
+      Map.entry("__mx_strlt", 0), Map.entry("__mx_strle", 0), Map.entry("__mx_strgt", 0),
+      Map.entry("__mx_strge", 0), Map.entry("__mx_streq", 0), Map.entry("__mx_strneq", 0),
+      Map.entry("__mx_strne", 0));
 }
\ No newline at end of file
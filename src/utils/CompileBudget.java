@@ -0,0 +1,74 @@
+package utils;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/*
+ * wall-clock budget of the whole compilation
+ * passes ask it before doing expensive work and record what they gave up
+ */
+
+public class CompileBudget {
+  long startTime, budget; // nanoseconds, budget < 0 means unlimited
+  // optional passes may only use the first part of the budget,
+  // and the last part is kept for instruction emission
+  static final double optionalPassRatio = 0.4, emitReserveRatio = 0.1;
+  // the report lists the functions whose register allocation took longest
+  static final int reportedFuncs = 5;
+
+  public LinkedHashMap<String, Long> funcTime = new LinkedHashMap<>(); // register allocation, nanoseconds
+  public ArrayList<String> skippedPasses = new ArrayList<>();
+  public ArrayList<String> downgraded = new ArrayList<>();
+
+  public CompileBudget() {
+    this(-1);
+  }
+
+  public CompileBudget(long budgetMillis) {
+    this.startTime = System.nanoTime();
+    this.budget = budgetMillis < 0 ? -1 : budgetMillis * 1000000;
+  }
+
+  public boolean isLimited() {
+    return budget >= 0;
+  }
+
+  public long elapsed() {
+    return System.nanoTime() - startTime;
+  }
+
+  public boolean allowOptionalPass(String passName) {
+    if (!isLimited() || elapsed() < budget * optionalPassRatio)
+      return true;
+    skippedPasses.add(passName);
+    return false;
+  }
+
+  // whether the work that is estimated to take `cost` nanoseconds can finish in time
+  public boolean canAfford(double cost) {
+    return !isLimited() || elapsed() + cost < budget * (1 - emitReserveRatio);
+  }
+
+  public void recordFunc(String funcName, long time) {
+    funcTime.merge(funcName, time, Long::sum);
+  }
+
+  public void downgrade(String funcName, String reason) {
+    downgraded.add(funcName + " (" + reason + ")");
+  }
+
+  public void report(PrintStream out) {
+    if (!isLimited())
+      return;
+    out.println("compile budget: " + budget / 1000000 + " ms, used " + elapsed() / 1000000 + " ms");
+    for (String pass : skippedPasses)
+      out.println("  skipped pass: " + pass);
+    for (String func : downgraded)
+      out.println("  downgraded: " + func);
+    ArrayList<String> slowest = new ArrayList<>(funcTime.keySet());
+    slowest.sort((a, b) -> Long.compare(funcTime.get(b), funcTime.get(a)));
+    for (int i = 0; i < slowest.size() && i < reportedFuncs; ++i)
+      out.println("  allocation of " + slowest.get(i) + ": " + funcTime.get(slowest.get(i)) / 1000000 + " ms");
+  }
+}